@@ -1,6 +1,21 @@
 package wtf.casper.storageapi;
 
+import org.jetbrains.annotations.Nullable;
 import wtf.casper.storageapi.cache.Cache;
+import wtf.casper.storageapi.cache.CachePolicy;
+import wtf.casper.storageapi.cache.CacheSnapshot;
+import wtf.casper.storageapi.cache.CacheWarmer;
+import wtf.casper.storageapi.cache.CacheStats;
+import wtf.casper.storageapi.cache.HotKeys;
+import wtf.casper.storageapi.cache.NegativeCache;
+import wtf.casper.storageapi.cache.SingleFlightLoader;
+import wtf.casper.storageapi.cache.WriteBehindQueue;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 public interface KVStorage<K, V> extends StatelessKVStorage<K, V> {
 
@@ -14,4 +29,147 @@ public interface KVStorage<K, V> extends StatelessKVStorage<K, V> {
      */
     void cache(Cache<K, V> cache);
 
-}
\ No newline at end of file
+    /**
+     * Replaces the cache with a new one built from the policy. Background refreshes read through {@link #load(Object)},
+     * values waiting to be written behind are kept as they are. Without a {@link CachePolicy.Builder#weigher(java.util.function.ToIntFunction)},
+     * {@link CachePolicy.Builder#maximumWeight(long)} weighs values with {@link #serializer()}.
+     *
+     * @param policy the policy to build the cache from.
+     */
+    default void cachePolicy(CachePolicy policy) {
+        cache(policy.build(key -> {
+            final WriteBehindQueue<K, V> writeBehind = writeBehind();
+            final V pending = writeBehind == null ? null : writeBehind.pending(key);
+            return pending != null ? CompletableFuture.completedFuture(pending) : load(key);
+        }, value -> serializer().serialize(value).length));
+    }
+
+    /**
+     * Reads a key from the backend without going through the cache.
+     *
+     * @param key the key to read.
+     * @return a future that will complete with the stored value, or null if the key is not found.
+     */
+    default CompletableFuture<V> load(K key) {
+        throw new UnsupportedOperationException("Loading is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * @return a snapshot of the cache statistics of this storage, including the loads done by {@link #loader()}.
+     */
+    default CacheStats stats() {
+        final SingleFlightLoader<K, V> loader = loader();
+        return loader == null ? cache().stats() : cache().stats().plus(loader.stats());
+    }
+
+    /**
+     * @return the loader that {@link #get(Object)} reads missing keys through, or null if misses aren't shared.
+     */
+    @Nullable
+    default SingleFlightLoader<K, V> loader() {
+        return null;
+    }
+
+    /**
+     * Remembers keys that are not found by {@link #get(Object)}, so repeated lookups of missing keys don't reach
+     * the backend. Saving a key clears its missing marker.
+     *
+     * @param ttl         how long a key is remembered as missing.
+     * @param unit        the unit of the ttl.
+     * @param maximumSize the maximum amount of missing keys to remember.
+     */
+    default void negativeCache(long ttl, TimeUnit unit, long maximumSize) {
+        final SingleFlightLoader<K, V> loader = loader();
+        if (loader == null) {
+            throw new UnsupportedOperationException("Negative caching is not supported by " + getClass().getSimpleName());
+        }
+
+        loader.negativeCache(new NegativeCache<>(ttl, unit, maximumSize));
+    }
+
+    /**
+     * Loads the keys into the cache ahead of traffic, in batches with at most {@code parallelism} batches in flight.
+     *
+     * @param keys        the keys to load.
+     * @param parallelism the maximum amount of batches loaded at once.
+     * @param progress    called with the amount of keys handled so far and the total after every batch, may be null.
+     * @return a future that will complete with the amount of values that were found.
+     */
+    default CompletableFuture<Integer> preload(Collection<K> keys, int parallelism, @Nullable BiConsumer<Integer, Integer> progress) {
+        return CacheWarmer.preload(this, keys, parallelism, progress);
+    }
+
+    /**
+     * Streams every stored value into the cache, only worth it when the whole table fits in the cache.
+     *
+     * @param progress called with the amount of values loaded so far after every batch and -1 as the total, may be null.
+     * @return a future that will complete with the amount of values loaded.
+     */
+    default CompletableFuture<Integer> preloadAll(@Nullable BiConsumer<Integer, Integer> progress) {
+        return CacheWarmer.preloadAll(this, progress);
+    }
+
+    /**
+     * @return the hot keys written on {@link #close()}, or null if they aren't recorded.
+     */
+    @Nullable
+    default HotKeys<K> hotKeys() {
+        return null;
+    }
+
+    /**
+     * Records the hottest keys of the cache to the file on {@link #close()}, and preloads the keys recorded by the
+     * previous run. Join the returned future before using the storage to start with a warm cache.
+     *
+     * @param file        the file the keys are stored in.
+     * @param limit       the maximum amount of keys to record.
+     * @param parallelism the maximum amount of batches loaded at once.
+     * @return a future that will complete with the amount of values that were preloaded.
+     */
+    default CompletableFuture<Integer> hotKeys(File file, int limit, int parallelism) {
+        throw new UnsupportedOperationException("Hot keys are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * @return the snapshot the cache is written to on {@link #close()}, or null if it isn't snapshotted.
+     */
+    @Nullable
+    default CacheSnapshot<K, V> snapshot() {
+        return null;
+    }
+
+    /**
+     * Restores the cache from the snapshot file written by the previous run, and writes a new one on {@link #close()}.
+     * Restored values are served right away and reloaded from the backend in the background on their first read.
+     *
+     * @param file   the snapshot file.
+     * @param maxAge how old a snapshot may be to still be restored.
+     * @param unit   the unit of the maximum age.
+     * @return the amount of values restored.
+     */
+    default int snapshot(File file, long maxAge, TimeUnit unit) {
+        throw new UnsupportedOperationException("Cache snapshots are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * @return the write-behind queue of this storage, or null if saves are written through to the backend.
+     */
+    @Nullable
+    default WriteBehindQueue<K, V> writeBehind() {
+        return null;
+    }
+
+    /**
+     * Enables write-behind. Saves only update the cache and mark the key dirty, dirty values are then written
+     * to the backend in batches every interval, or as soon as the flush threshold is reached.
+     * Pending values are written on {@link #write()} and {@link #close()}.
+     *
+     * @param interval       how often dirty values are flushed.
+     * @param unit           the unit of the interval.
+     * @param flushThreshold the amount of dirty values that triggers a flush before the interval passes.
+     */
+    default void writeBehind(long interval, TimeUnit unit, int flushThreshold) {
+        throw new UnsupportedOperationException("Write-behind is not supported by " + getClass().getSimpleName());
+    }
+
+}
@@ -1,18 +1,85 @@
 package wtf.casper.storageapi;
 
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.cache.DirtyTracker;
+import wtf.casper.storageapi.id.utils.IdUtils;
 import wtf.casper.storageapi.misc.ConstructableValue;
 import wtf.casper.storageapi.misc.KeyValue;
+import wtf.casper.storageapi.misc.Page;
+import wtf.casper.storageapi.serializer.Serializer;
 import wtf.casper.storageapi.utils.ReflectionUtil;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
+import wtf.casper.storageapi.utils.StorageExecutor;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface StatelessKVStorage<K, V> {
 
+    /**
+     * @return the executor this storage runs its operations on.
+     */
+    default StorageExecutor executor() {
+        return StorageAPIConstants.DB_EXECUTOR;
+    }
+
+    /**
+     * @param executor the executor this storage should run its operations on.
+     * @see StorageExecutor for bounded presets.
+     */
+    default void executor(final StorageExecutor executor) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support changing its executor");
+    }
+
+    /**
+     * @return the serializer values are stored with, json through {@link StorageAPIConstants#getGson()} by default.
+     */
+    default Serializer<V> serializer() {
+        if (this instanceof KeyValue<?, ?>) {
+            return Serializer.gson(((KeyValue<K, V>) this).value());
+        }
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not expose its serializer");
+    }
+
+    /**
+     * Values already stored are not converted, set the serializer before storing values
+     * or {@link #migrate(StatelessKVStorage)} from a storage that still uses the old one.
+     *
+     * @param serializer the serializer to store values with.
+     */
+    default void serializer(final Serializer<V> serializer) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support changing its serializer");
+    }
+
+    /**
+     * @return the tracker used by {@link #save(Object)}, {@link #saveAll(Collection)} and {@link #write()} to skip
+     * values that are unchanged since they were loaded or last written, or null if every value is written.
+     */
+    @Nullable
+    default DirtyTracker<K> dirtyTracker() {
+        return null;
+    }
+
+    /**
+     * Stateless storages don't track by default, they are usually shared with other writers whose changes
+     * the tracker can't see. Only enable it if this storage is the sole writer of its keys.
+     *
+     * @param dirtyTracker the tracker to skip unchanged writes with, or null to write every value.
+     */
+    default void dirtyTracker(@Nullable final DirtyTracker<K> dirtyTracker) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support changing its dirty tracker");
+    }
+
     /**
      * @param key the key to search for.
      * @return a future that will complete with the value that matches the given key.
@@ -20,6 +87,29 @@ public interface StatelessKVStorage<K, V> {
      */
     CompletableFuture<V> get(final K key);
 
+    /**
+     * @param keys the keys to search for.
+     * @return a future that will complete with a map of every found key to its value.
+     * Keys that are not found are not present in the map.
+     */
+    default CompletableFuture<Map<K, V>> getAll(final Collection<K> keys) {
+        final Map<K, CompletableFuture<V>> futures = new HashMap<>();
+        for (final K key : keys) {
+            futures.put(key, get(key));
+        }
+
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            final Map<K, V> values = new HashMap<>();
+            futures.forEach((key, future) -> {
+                final V value = future.join();
+                if (value != null) {
+                    values.put(key, value);
+                }
+            });
+            return values;
+        });
+    }
+
     /**
      * @param key the key to search for.
      * @return a future that will complete with the value that matches the given key or a generated value if not found.
@@ -78,7 +168,11 @@ public interface StatelessKVStorage<K, V> {
      * @param values the values to save.
      */
     default CompletableFuture<Void> saveAll(final Collection<V> values) {
-        return CompletableFuture.runAsync(() -> values.forEach(v -> save(v).join()), StorageAPIConstants.DB_THREAD_POOL);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (final V value : values) {
+            futures.add(save(value));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
     }
 
     /**
@@ -86,6 +180,20 @@ public interface StatelessKVStorage<K, V> {
      */
     CompletableFuture<Void> remove(final V key);
 
+    /**
+     * @param values the values to remove.
+     */
+    default CompletableFuture<Void> removeAll(final Collection<V> values) {
+        return CompletableFuture.allOf(values.stream().map(this::remove).toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * @param keys the keys to remove.
+     */
+    default CompletableFuture<Void> removeKeys(final Collection<K> keys) {
+        return getAll(keys).thenCompose(values -> removeAll(values.values()));
+    }
+
     /**
      * Writes the storage to disk.
      */
@@ -108,7 +216,7 @@ public interface StatelessKVStorage<K, V> {
      * @return a future that will complete with a boolean that represents whether the storage contains a value that matches the given field and value.
      */
     default CompletableFuture<Boolean> contains(K key) {
-        return CompletableFuture.supplyAsync(() -> get(key).join() != null, StorageAPIConstants.DB_THREAD_POOL);
+        return get(key).thenApply(Objects::nonNull);
     }
 
     /**
@@ -116,11 +224,8 @@ public interface StatelessKVStorage<K, V> {
      * @return a future that will complete with a boolean that represents whether the migration was successful.
      */
     default CompletableFuture<Boolean> migrate(final StatelessKVStorage<K, V> storage) {
-        return CompletableFuture.supplyAsync(() -> {
-            Collection<V> vs = storage.allValues().join();
-            saveAll(vs).join(); // save all will batch if the implementation supports it (mongo for example)
-            return true;
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        // save all will batch if the implementation supports it (mongo for example)
+        return storage.allValues().thenCompose(this::saveAll).thenApply(ignored -> true);
     }
 
     CompletableFuture<Void> renameField(String path, String newPath);
@@ -131,4 +236,48 @@ public interface StatelessKVStorage<K, V> {
      * @return a future that will complete with a collection of all values in the storage.
      */
     CompletableFuture<Collection<V>> allValues();
+
+    /**
+     * Streams all values in the storage without loading them all into memory first.
+     * The stream holds on to backend resources (connections, cursors or file handles) and is blocking,
+     * so it should be consumed off the main thread and closed, preferably with try-with-resources.
+     *
+     * @return a stream of all values in the storage.
+     */
+    default Stream<V> stream() {
+        return allValues().join().stream();
+    }
+
+    /**
+     * @param consumer the consumer to call for every value in the storage.
+     * @return a future that will complete once every value has been passed to the consumer.
+     */
+    default CompletableFuture<Void> forEach(final Consumer<V> consumer) {
+        return CompletableFuture.runAsync(() -> {
+            try (Stream<V> stream = stream()) {
+                stream.forEach(consumer);
+            }
+        }, executor());
+    }
+
+    /**
+     * Reads one page of values ordered by key, starting after the given key.
+     * Pass {@link Page#getNextKey()} of the previous page to continue the scan.
+     *
+     * @param afterKey the key to start after, or null to start at the beginning.
+     * @param limit    the maximum amount of values in the page.
+     * @return a future that will complete with the page.
+     */
+    default CompletableFuture<Page<K, V>> scan(@Nullable final K afterKey, final int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            final String after = afterKey == null ? null : afterKey.toString();
+            try (Stream<V> stream = stream()) {
+                return Page.of(stream
+                        .filter(value -> after == null || IdUtils.getId(value).toString().compareTo(after) > 0)
+                        .sorted(Comparator.comparing(value -> IdUtils.getId(value).toString()))
+                        .limit(limit)
+                        .toList(), limit);
+            }
+        }, executor());
+    }
 }
@@ -1,6 +1,10 @@
 package wtf.casper.storageapi.cache;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public interface Cache<K, V> {
 
@@ -10,10 +14,33 @@ public interface Cache<K, V> {
 
     void putAll(Map<K, V> map);
 
+    /**
+     * @return the value that was already cached for the key, or null if the given value was cached.
+     */
+    default V putIfAbsent(K key, V value) {
+        return asMap().putIfAbsent(key, value);
+    }
+
+    /**
+     * Replaces the value of the key only if it still is the expected value.
+     *
+     * @param value the new value, or null to remove the key.
+     * @return true if the value was replaced.
+     */
+    default boolean replace(K key, V expected, @Nullable V value) {
+        return value == null ? asMap().remove(key, expected) : asMap().replace(key, expected, value);
+    }
+
     void invalidate(K key);
 
     void invalidateAll();
 
+    default void invalidateAll(Iterable<K> keys) {
+        for (K key : keys) {
+            invalidate(key);
+        }
+    }
+
     boolean contains(K key);
 
     long size();
@@ -21,4 +48,19 @@ public interface Cache<K, V> {
     void cleanUp();
 
     Map<K, V> asMap();
+
+    /**
+     * @param limit the maximum amount of keys to return.
+     * @return the keys most likely to be used again, hottest first when the cache can tell.
+     */
+    default Collection<K> hottest(int limit) {
+        return asMap().keySet().stream().limit(limit).collect(Collectors.toList());
+    }
+
+    /**
+     * @return a snapshot of the statistics of this cache, empty if the cache does not record any.
+     */
+    default CacheStats stats() {
+        return CacheStats.empty();
+    }
 }
@@ -0,0 +1,263 @@
+package wtf.casper.storageapi.cache;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.cache.CacheBuilder;
+import lombok.Getter;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Describes how a storage should cache its values, independent of the cache library that is used.
+ * <pre>{@code
+ * CachePolicy policy = CachePolicy.builder()
+ *         .maximumSize(10_000)
+ *         .expireAfterAccess(30, TimeUnit.MINUTES)
+ *         .refreshAfterWrite(5, TimeUnit.MINUTES)
+ *         .build();
+ * }</pre>
+ */
+@Getter
+public final class CachePolicy {
+
+    public enum Provider {
+        CAFFEINE,
+        GOOGLE,
+        MAP
+    }
+
+    private final Provider provider;
+    private final long maximumSize;
+    private final long maximumWeight;
+    @Nullable
+    private final ToIntFunction<Object> weigher;
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final long refreshAfterWriteNanos;
+    private final boolean softValues;
+    private final boolean recordStats;
+
+    private CachePolicy(final Builder builder) {
+        this.provider = builder.provider;
+        this.maximumSize = builder.maximumSize;
+        this.maximumWeight = builder.maximumWeight;
+        this.weigher = builder.weigher;
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+        this.refreshAfterWriteNanos = builder.refreshAfterWriteNanos;
+        this.softValues = builder.softValues;
+        this.recordStats = builder.recordStats;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a cache following this policy, {@link Builder#maximumWeight(long)} needs a {@link Builder#weigher(ToIntFunction)}.
+     *
+     * @param reloader reads a key from the backend, used to refresh entries in the background
+     *                 when {@link Builder#refreshAfterWrite(long, TimeUnit)} is set.
+     * @return the cache.
+     */
+    public <K, V> Cache<K, V> build(final Function<K, CompletableFuture<V>> reloader) {
+        return build(reloader, null);
+    }
+
+    /**
+     * Creates a cache following this policy.
+     *
+     * @param reloader        reads a key from the backend, used to refresh entries in the background
+     *                        when {@link Builder#refreshAfterWrite(long, TimeUnit)} is set.
+     * @param fallbackWeigher weighs values when {@link Builder#maximumWeight(long)} is set without a weigher,
+     *                        storages weigh with their serializer.
+     * @return the cache.
+     */
+    public <K, V> Cache<K, V> build(final Function<K, CompletableFuture<V>> reloader, @Nullable final ToIntFunction<V> fallbackWeigher) {
+        final ToIntFunction<V> weigher = this.weigher != null ? this.weigher::applyAsInt : fallbackWeigher;
+        if (maximumWeight >= 0 && weigher == null) {
+            throw new IllegalStateException("maximumWeight needs a weigher");
+        }
+
+        return switch (provider) {
+            case CAFFEINE -> caffeine(reloader, weigher);
+            case GOOGLE -> google(weigher);
+            case MAP -> map();
+        };
+    }
+
+    private <K, V> Cache<K, V> caffeine(final Function<K, CompletableFuture<V>> reloader, final ToIntFunction<V> weigher) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder();
+        if (maximumSize >= 0) {
+            builder.maximumSize(maximumSize);
+        }
+        if (maximumWeight >= 0) {
+            builder.maximumWeight(maximumWeight).weigher((Object key, Object value) -> weigher.applyAsInt((V) value));
+        }
+        if (expireAfterWriteNanos >= 0) {
+            builder.expireAfterWrite(expireAfterWriteNanos, TimeUnit.NANOSECONDS);
+        }
+        if (expireAfterAccessNanos >= 0) {
+            builder.expireAfterAccess(expireAfterAccessNanos, TimeUnit.NANOSECONDS);
+        }
+        if (softValues) {
+            builder.softValues();
+        }
+        if (recordStats) {
+            builder.recordStats();
+        }
+
+        if (refreshAfterWriteNanos < 0) {
+            return new CaffeineCache<>(builder.build());
+        }
+
+        builder.refreshAfterWrite(refreshAfterWriteNanos, TimeUnit.NANOSECONDS);
+        return new CaffeineCache<>(builder.build(new CacheLoader<K, V>() {
+            @Override
+            public V load(K key) {
+                return reloader.apply(key).join();
+            }
+
+            @Override
+            public CompletableFuture<V> asyncReload(K key, V oldValue, Executor executor) {
+                // a null result removes the entry, which is what we want when the key was deleted from the backend
+                return reloader.apply(key);
+            }
+        }));
+    }
+
+    private <K, V> Cache<K, V> google(final ToIntFunction<V> weigher) {
+        // guava only refreshes on LoadingCache#get, which the storages never call
+        if (refreshAfterWriteNanos >= 0) {
+            throw new IllegalStateException("refreshAfterWrite is only supported by the CAFFEINE provider");
+        }
+
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (maximumSize >= 0) {
+            builder.maximumSize(maximumSize);
+        }
+        if (maximumWeight >= 0) {
+            builder.maximumWeight(maximumWeight).weigher((Object key, Object value) -> weigher.applyAsInt((V) value));
+        }
+        if (expireAfterWriteNanos >= 0) {
+            builder.expireAfterWrite(expireAfterWriteNanos, TimeUnit.NANOSECONDS);
+        }
+        if (expireAfterAccessNanos >= 0) {
+            builder.expireAfterAccess(expireAfterAccessNanos, TimeUnit.NANOSECONDS);
+        }
+        if (softValues) {
+            builder.softValues();
+        }
+        if (recordStats) {
+            builder.recordStats();
+        }
+        return new GoogleCache<>(builder.build());
+    }
+
+    private <K, V> Cache<K, V> map() {
+        if (maximumWeight >= 0 || expireAfterWriteNanos >= 0 || expireAfterAccessNanos >= 0 || refreshAfterWriteNanos >= 0 || softValues) {
+            throw new IllegalStateException("The MAP provider only supports maximumSize");
+        }
+
+        if (maximumSize < 0) {
+            return new MapCache<>(new ConcurrentHashMap<>());
+        }
+
+        return new MapCache<>(new ClockCache<K, V>(maximumSize).asMap());
+    }
+
+    public static final class Builder {
+        private Provider provider = Provider.CAFFEINE;
+        private long maximumSize = -1;
+        private long maximumWeight = -1;
+        private ToIntFunction<Object> weigher;
+        private long expireAfterWriteNanos = -1;
+        private long expireAfterAccessNanos = -1;
+        private long refreshAfterWriteNanos = -1;
+        private boolean softValues = false;
+        private boolean recordStats = true;
+
+        private Builder() {
+        }
+
+        public Builder provider(final Provider provider) {
+            this.provider = provider;
+            return this;
+        }
+
+        /**
+         * @param maximumSize the maximum amount of cached values.
+         */
+        public Builder maximumSize(final long maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Bounds the cache by the serialized size of its values instead of their amount.
+         *
+         * @param maximumBytes the maximum total serialized size of the cached values, in bytes.
+         */
+        public Builder maximumWeight(final long maximumBytes) {
+            this.maximumWeight = maximumBytes;
+            return this;
+        }
+
+        /**
+         * Weighs values for {@link #maximumWeight(long)}, once per write. Storages weigh with the size their serializer
+         * produces when this isn't set, which serializes every written value a second time.
+         *
+         * @param weigher the approximate size of a value, in bytes.
+         */
+        @SuppressWarnings("unchecked")
+        public <V> Builder weigher(final ToIntFunction<V> weigher) {
+            this.weigher = value -> weigher.applyAsInt((V) value);
+            return this;
+        }
+
+        public Builder expireAfterWrite(final long duration, final TimeUnit unit) {
+            this.expireAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        public Builder expireAfterAccess(final long duration, final TimeUnit unit) {
+            this.expireAfterAccessNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Reloads values from the backend in the background once they are older than the duration and are read again.
+         * The old value keeps being served until the reload completes.
+         */
+        public Builder refreshAfterWrite(final long duration, final TimeUnit unit) {
+            this.refreshAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Lets the garbage collector evict values when memory runs low.
+         */
+        public Builder softValues() {
+            this.softValues = true;
+            return this;
+        }
+
+        public Builder recordStats(final boolean recordStats) {
+            this.recordStats = recordStats;
+            return this;
+        }
+
+        public CachePolicy build() {
+            if (maximumSize >= 0 && maximumWeight >= 0) {
+                throw new IllegalStateException("maximumSize and maximumWeight can not be combined");
+            }
+            return new CachePolicy(this);
+        }
+    }
+}
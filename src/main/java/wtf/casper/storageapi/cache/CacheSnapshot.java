@@ -0,0 +1,192 @@
+package wtf.casper.storageapi.cache;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+import wtf.casper.storageapi.KVStorage;
+import wtf.casper.storageapi.serializer.Serializer;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Saves the contents of a cache to a local file so the next start can begin with a warm cache instead of
+ * reading every value from the backend again.
+ * <p>
+ * The file is gzipped and holds a header with the time it was written, followed by the key, the serialized value
+ * and a CRC32 checksum of both for every entry. Entries with a wrong checksum are skipped, and snapshots older than
+ * the maximum age are ignored. Restored values are revalidated lazily: the first read of a restored key still returns
+ * the snapshot value, and reloads it from the backend in the background.
+ */
+@Log
+public class CacheSnapshot<K, V> {
+
+    private static final int MAGIC = 0x4B56534E;
+    private static final int FORMAT = 1;
+    private static final int MAX_ENTRY_SIZE = 64 * 1024 * 1024;
+
+    @Getter
+    private final File file;
+    private final Class<K> keyClass;
+    private final Class<V> valueClass;
+    private final long maxAgeMillis;
+
+    /**
+     * @param maxAge how old a snapshot may be to still be restored.
+     */
+    public CacheSnapshot(final File file, final Class<K> keyClass, final Class<V> valueClass, final long maxAge, final TimeUnit unit) {
+        this.file = file;
+        this.keyClass = keyClass;
+        this.valueClass = valueClass;
+        this.maxAgeMillis = unit.toMillis(maxAge);
+    }
+
+    /**
+     * Writes every entry of the cache, replacing the previous snapshot.
+     *
+     * @return the amount of entries written.
+     */
+    public int write(final Cache<K, V> cache) {
+        final Map<K, V> values = new HashMap<>(cache.asMap());
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        // written next to the file first, so a crash while writing can't leave half a snapshot
+        final File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(values.size());
+
+            final CRC32 crc = new CRC32();
+            for (final Map.Entry<K, V> entry : values.entrySet()) {
+                final byte[] key = StorageAPIConstants.getGson().toJson(entry.getKey()).getBytes(StandardCharsets.UTF_8);
+                final byte[] value = StorageAPIConstants.getGson().toJson(entry.getValue()).getBytes(StandardCharsets.UTF_8);
+                crc.reset();
+                crc.update(key);
+                crc.update(value);
+
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(value.length);
+                out.write(value);
+                out.writeLong(crc.getValue());
+            }
+        } catch (final IOException e) {
+            log.warning("Could not write cache snapshot to " + file.getPath());
+            e.printStackTrace();
+            temp.delete();
+            return 0;
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            log.warning("Could not write cache snapshot to " + file.getPath());
+            e.printStackTrace();
+            return 0;
+        }
+        return values.size();
+    }
+
+    /**
+     * Reads the snapshot into the cache of the storage. The snapshot is deleted afterwards, so a crash before the next
+     * {@link #write(Cache)} doesn't restore values that are even older.
+     *
+     * @return the amount of entries restored.
+     */
+    public int restore(final KVStorage<K, V> storage) {
+        final Map<K, String> entries = read();
+        final Map<K, V> values = new HashMap<>();
+        final DirtyTracker<K> tracker = storage.dirtyTracker();
+        final Serializer<V> serializer = storage.serializer();
+        entries.forEach((key, json) -> {
+            final V value = StorageAPIConstants.getGson().fromJson(json, valueClass);
+            values.put(key, value);
+            // the values were clean when the snapshot was written, so write() shouldn't write them back
+            if (tracker != null) {
+                tracker.markClean(key, serializer.text() ? json : serializer.serialize(value));
+            }
+        });
+
+        storage.cache().putAll(values);
+        if (storage.loader() != null) {
+            storage.loader().revalidate(values.keySet());
+        }
+        file.delete();
+        return values.size();
+    }
+
+    /**
+     * @return the serialized value of every valid entry, by key. Empty if there is no snapshot or it is too old.
+     */
+    public Map<K, String> read() {
+        final Map<K, String> entries = new HashMap<>();
+        if (!file.exists()) {
+            return entries;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                log.warning("Ignoring cache snapshot with an unknown format: " + file.getPath());
+                return entries;
+            }
+
+            final long created = in.readLong();
+            if (System.currentTimeMillis() - created > maxAgeMillis) {
+                return entries;
+            }
+
+            final int count = in.readInt();
+            final CRC32 crc = new CRC32();
+            int corrupt = 0;
+            for (int i = 0; i < count; i++) {
+                final byte[] key = readBytes(in);
+                final byte[] value = readBytes(in);
+                final long checksum = in.readLong();
+
+                crc.reset();
+                crc.update(key);
+                crc.update(value);
+                if (crc.getValue() != checksum) {
+                    corrupt++;
+                    continue;
+                }
+
+                entries.put(StorageAPIConstants.getGson().fromJson(new String(key, StandardCharsets.UTF_8), keyClass), new String(value, StandardCharsets.UTF_8));
+            }
+
+            if (corrupt > 0) {
+                log.warning("Skipped " + corrupt + " corrupt entries in cache snapshot " + file.getPath());
+            }
+        } catch (final IOException | RuntimeException e) {
+            // a truncated snapshot still restores the entries before the damage
+            log.warning("Could not read the whole cache snapshot " + file.getPath() + ", restored " + entries.size() + " entries");
+            e.printStackTrace();
+        }
+        return entries;
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        // a damaged length would otherwise allocate an arbitrary amount of memory
+        if (length < 0 || length > MAX_ENTRY_SIZE) {
+            throw new IOException("Invalid entry length " + length);
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,89 @@
+package wtf.casper.storageapi.cache;
+
+import lombok.Getter;
+
+/**
+ * A snapshot of the statistics of a {@link Cache}. Counters that the cache does not record are zero.
+ */
+@Getter
+public final class CacheStats {
+
+    private static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    /**
+     * The total time spent loading values, in nanoseconds.
+     */
+    private final long totalLoadTime;
+    private final long evictionCount;
+
+    public CacheStats(final long hitCount, final long missCount, final long loadSuccessCount, final long loadFailureCount, final long totalLoadTime, final long evictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+    }
+
+    public static CacheStats empty() {
+        return EMPTY;
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return the ratio of lookups that were hits, or 1 if nothing was looked up yet.
+     */
+    public double hitRate() {
+        final long requests = requestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * @return the ratio of lookups that were misses, or 0 if nothing was looked up yet.
+     */
+    public double missRate() {
+        final long requests = requestCount();
+        return requests == 0 ? 0.0 : (double) missCount / requests;
+    }
+
+    /**
+     * @return the average time spent loading a value, in nanoseconds.
+     */
+    public double averageLoadPenalty() {
+        final long loads = loadSuccessCount + loadFailureCount;
+        return loads == 0 ? 0.0 : (double) totalLoadTime / loads;
+    }
+
+    /**
+     * @return the sum of both snapshots.
+     */
+    public CacheStats plus(final CacheStats other) {
+        return new CacheStats(
+                hitCount + other.hitCount,
+                missCount + other.missCount,
+                loadSuccessCount + other.loadSuccessCount,
+                loadFailureCount + other.loadFailureCount,
+                totalLoadTime + other.totalLoadTime,
+                evictionCount + other.evictionCount
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", loadSuccessCount=" + loadSuccessCount +
+                ", loadFailureCount=" + loadFailureCount +
+                ", totalLoadTime=" + totalLoadTime +
+                ", evictionCount=" + evictionCount +
+                '}';
+    }
+}
@@ -0,0 +1,121 @@
+package wtf.casper.storageapi.cache;
+
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.KVStorage;
+import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.serializer.Serializer;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Fills the cache of a storage ahead of traffic, so the first requests after a start don't all reach the backend.
+ */
+public final class CacheWarmer {
+
+    private CacheWarmer() {
+    }
+
+    /**
+     * Loads the keys in batches through {@link KVStorage#getAll(Collection)}, with at most {@code parallelism}
+     * batches in flight at once.
+     *
+     * @param progress called with the amount of keys handled so far and the total after every batch, may be null.
+     * @return a future that will complete with the amount of values that were found.
+     */
+    public static <K, V> CompletableFuture<Integer> preload(final KVStorage<K, V> storage, final Collection<K> keys, final int parallelism,
+                                                             @Nullable final BiConsumer<Integer, Integer> progress) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+
+        final List<K> remaining = new ArrayList<>(keys);
+        final Queue<List<K>> batches = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < remaining.size(); i += StorageAPIConstants.DEFAULT_BATCH_SIZE) {
+            batches.add(remaining.subList(i, Math.min(remaining.size(), i + StorageAPIConstants.DEFAULT_BATCH_SIZE)));
+        }
+
+        final AtomicInteger handled = new AtomicInteger();
+        final AtomicInteger found = new AtomicInteger();
+        final List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, batches.size()); i++) {
+            workers.add(next(storage, batches, remaining.size(), handled, found, progress));
+        }
+
+        return CompletableFuture.allOf(workers.toArray(CompletableFuture[]::new)).thenApply(ignored -> found.get());
+    }
+
+    // each worker takes the next batch once its previous one completes, which bounds the batches in flight
+    private static <K, V> CompletableFuture<Void> next(final KVStorage<K, V> storage, final Queue<List<K>> batches, final int total,
+                                                      final AtomicInteger handled, final AtomicInteger found,
+                                                      @Nullable final BiConsumer<Integer, Integer> progress) {
+        final List<K> batch = batches.poll();
+        if (batch == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return storage.getAll(batch).thenCompose(values -> {
+            found.addAndGet(values.size());
+            final int done = handled.addAndGet(batch.size());
+            if (progress != null) {
+                progress.accept(done, total);
+            }
+            return next(storage, batches, total, handled, found, progress);
+        });
+    }
+
+    /**
+     * Streams every value of the backend into the cache.
+     *
+     * @param progress called with the amount of values loaded so far after every batch, the total is -1 because it
+     *                 isn't known up front. May be null.
+     * @return a future that will complete with the amount of values loaded.
+     */
+    public static <K, V> CompletableFuture<Integer> preloadAll(final KVStorage<K, V> storage, @Nullable final BiConsumer<Integer, Integer> progress) {
+        return CompletableFuture.supplyAsync(() -> {
+            final Cache<K, V> cache = storage.cache();
+            final DirtyTracker<K> tracker = storage.dirtyTracker();
+            final Serializer<V> serializer = storage.serializer();
+            int loaded = 0;
+
+            // started before streaming, so a save or remove meanwhile isn't overwritten by the older backend copy
+            final SingleFlightLoader<K, V> loader = storage.loader();
+            try (SingleFlightLoader<K, V>.BulkLoad bulkLoad = loader == null ? null : loader.bulkLoad();
+                 Stream<V> stream = storage.stream()) {
+                for (final V value : (Iterable<V>) stream::iterator) {
+                    final K key = (K) IdUtils.getId(value);
+                    if (key == null) {
+                        continue;
+                    }
+
+                    if (bulkLoad != null) {
+                        bulkLoad.publish(key, value);
+                    } else {
+                        cache.putIfAbsent(key, value);
+                    }
+                    // the values are as stored, so write() shouldn't write them back
+                    if (tracker != null) {
+                        tracker.markClean(key, serializer.serialize(value));
+                    }
+
+                    if (++loaded % StorageAPIConstants.DEFAULT_BATCH_SIZE == 0 && progress != null) {
+                        progress.accept(loaded, -1);
+                    }
+                }
+            }
+
+            if (progress != null) {
+                progress.accept(loaded, -1);
+            }
+            return loaded;
+        }, storage.executor());
+    }
+}
@@ -1,6 +1,8 @@
 package wtf.casper.storageapi.cache;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.Optional;
 
 public class CaffeineCache<K, V> implements Cache<K, V> {
 
@@ -39,6 +41,11 @@ public class CaffeineCache<K, V> implements Cache<K, V> {
         cache.invalidateAll();
     }
 
+    @Override
+    public void invalidateAll(Iterable<K> keys) {
+        cache.invalidateAll(keys);
+    }
+
     @Override
     public boolean contains(K key) {
         return cache.getIfPresent(key) != null;
@@ -58,4 +65,28 @@ public class CaffeineCache<K, V> implements Cache<K, V> {
     public Map<K, V> asMap() {
         return cache.asMap();
     }
+
+    /**
+     * Uses the eviction policy when the cache is bounded, otherwise the most recently accessed or written keys.
+     */
+    @Override
+    public Collection<K> hottest(int limit) {
+        Optional<Map<K, V>> hottest = cache.policy().eviction().map(eviction -> eviction.hottest(limit));
+        if (hottest.isEmpty()) {
+            hottest = cache.policy().expireAfterAccess().map(expiration -> expiration.youngest(limit));
+        }
+        if (hottest.isEmpty()) {
+            hottest = cache.policy().expireAfterWrite().map(expiration -> expiration.youngest(limit));
+        }
+        return hottest.map(map -> (Collection<K>) map.keySet()).orElseGet(() -> Cache.super.hottest(limit));
+    }
+
+    /**
+     * Statistics are only recorded if the cache was built with {@code recordStats()}.
+     */
+    @Override
+    public CacheStats stats() {
+        com.github.benmanes.caffeine.cache.stats.CacheStats stats = cache.stats();
+        return new CacheStats(stats.hitCount(), stats.missCount(), stats.loadSuccessCount(), stats.loadFailureCount(), stats.totalLoadTime(), stats.evictionCount());
+    }
 }
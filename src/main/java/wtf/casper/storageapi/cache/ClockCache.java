@@ -0,0 +1,351 @@
+package wtf.casper.storageapi.cache;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded concurrent cache without dependencies, evicting with the CLOCK (second chance) algorithm.
+ * <p>
+ * Reads don't take a lock, they only set the referenced bit of the entry. Writes lock the hash bin of their key.
+ * Once the cache holds more than its maximum size, the writer that noticed it evicts: entries are visited in insertion
+ * order, an entry that was referenced since the last visit gets its bit cleared and moves to the back, the first one
+ * that wasn't is evicted. Hot entries survive a scan over many cold keys, which an LRU doesn't.
+ */
+public class ClockCache<K, V> implements Cache<K, V> {
+
+    private final long maximumSize;
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final Queue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // removed nodes still in the clock, compacted once they outnumber the live ones
+    private final AtomicInteger dead = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Map<K, V> view = new MapView();
+
+    /**
+     * @param maximumSize the maximum amount of cached values.
+     */
+    public ClockCache(final long maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    @Override
+    public V getIfPresent(K key) {
+        final Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+
+        // skip the write when the bit is already set, so hot keys don't bounce their cache line between cores
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        hits.increment();
+        return node.value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        write(key, value, false);
+    }
+
+    @Override
+    public void putAll(Map<K, V> map) {
+        map.forEach(this::put);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return write(key, value, true);
+    }
+
+    /**
+     * @return the previous value of the key.
+     */
+    private V write(final K key, final V value, final boolean onlyIfAbsent) {
+        final Object[] previous = new Object[1];
+        final Node<K, V>[] added = new Node[1];
+        data.compute(key, (k, node) -> {
+            if (node == null) {
+                added[0] = new Node<>(k, value);
+                return added[0];
+            }
+
+            previous[0] = node.value;
+            if (!onlyIfAbsent) {
+                node.value = value;
+                node.referenced = true;
+            }
+            return node;
+        });
+
+        if (added[0] != null) {
+            clock.offer(added[0]);
+            evictIfNeeded();
+        }
+        return (V) previous[0];
+    }
+
+    private void evictIfNeeded() {
+        if (data.mappingCount() <= maximumSize) {
+            return;
+        }
+
+        evictionLock.lock();
+        try {
+            while (data.mappingCount() > maximumSize) {
+                final Node<K, V> node = clock.poll();
+                if (node == null) {
+                    return;
+                }
+
+                if (!node.removed && node.referenced) {
+                    node.referenced = false;
+                    clock.offer(node);
+                    continue;
+                }
+
+                if (!node.removed && remove(node)) {
+                    evictions.increment();
+                }
+                // the node is removed either way and already left the clock, so it no longer counts as dead
+                dead.decrementAndGet();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the node if it is still the mapping of its key.
+     */
+    private boolean remove(final Node<K, V> node) {
+        final boolean[] removed = new boolean[1];
+        data.computeIfPresent(node.key, (k, current) -> {
+            if (current != node) {
+                return current;
+            }
+            markRemoved(node);
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    private void markRemoved(final Node<K, V> node) {
+        node.removed = true;
+        dead.incrementAndGet();
+    }
+
+    private void compactIfNeeded() {
+        if (dead.get() > Math.max(data.size(), 16)) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+
+        try {
+            int removed = 0;
+            for (Iterator<Node<K, V>> iterator = clock.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().removed) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+            dead.addAndGet(-removed);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(K key) {
+        data.computeIfPresent(key, (k, node) -> {
+            markRemoved(node);
+            return null;
+        });
+        compactIfNeeded();
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (K key : data.keySet()) {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void invalidateAll(Iterable<K> keys) {
+        for (K key : keys) {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return data.containsKey(key);
+    }
+
+    @Override
+    public long size() {
+        return data.mappingCount();
+    }
+
+    @Override
+    public void cleanUp() {
+        evictIfNeeded();
+        compact();
+    }
+
+    /**
+     * @return a live view of the cache, writes through it are bounded and evicted like any other write.
+     */
+    @Override
+    public Map<K, V> asMap() {
+        return view;
+    }
+
+    /**
+     * Referenced keys first, they were read or written since the clock last passed them.
+     */
+    @Override
+    public Collection<K> hottest(int limit) {
+        final List<K> hot = new ArrayList<>();
+        final List<K> cold = new ArrayList<>();
+        for (Node<K, V> node : data.values()) {
+            (node.referenced ? hot : cold).add(node.key);
+        }
+        hot.addAll(cold);
+        return hot.size() > limit ? hot.subList(0, limit) : hot;
+    }
+
+    @Override
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), 0, 0, 0, evictions.sum());
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private volatile V value;
+        private volatile boolean referenced;
+        private volatile boolean removed;
+
+        private Node(final K key, final V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final class MapView extends AbstractMap<K, V> {
+
+        @Override
+        public V get(Object key) {
+            final Node<K, V> node = data.get(key);
+            if (node == null) {
+                return null;
+            }
+            if (!node.referenced) {
+                node.referenced = true;
+            }
+            return node.value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return data.containsKey(key);
+        }
+
+        @Override
+        public V put(K key, V value) {
+            return write(key, value, false);
+        }
+
+        @Override
+        public V putIfAbsent(K key, V value) {
+            return write(key, value, true);
+        }
+
+        @Override
+        public V remove(Object key) {
+            final Object[] previous = new Object[1];
+            data.computeIfPresent((K) key, (k, node) -> {
+                previous[0] = node.value;
+                markRemoved(node);
+                return null;
+            });
+            compactIfNeeded();
+            return (V) previous[0];
+        }
+
+        @Override
+        public void clear() {
+            invalidateAll();
+        }
+
+        @Override
+        public int size() {
+            return data.size();
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    final Iterator<Node<K, V>> nodes = data.values().iterator();
+                    return new Iterator<>() {
+                        private Node<K, V> last;
+
+                        @Override
+                        public boolean hasNext() {
+                            return nodes.hasNext();
+                        }
+
+                        @Override
+                        public Entry<K, V> next() {
+                            last = nodes.next();
+                            return new SimpleImmutableEntry<>(last.key, last.value);
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (last == null) {
+                                throw new IllegalStateException();
+                            }
+                            ClockCache.this.remove(last);
+                            compactIfNeeded();
+                            last = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return data.size();
+                }
+            };
+        }
+    }
+}
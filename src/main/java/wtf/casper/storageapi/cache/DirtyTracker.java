@@ -0,0 +1,107 @@
+package wtf.casper.storageapi.cache;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Remembers a 64-bit hash of the serialized form of every value as it was last loaded from or written to the backend,
+ * so saves and full writes of the cache only have to persist the values that actually changed.
+ * <p>
+ * The hashes describe what this process last saw, a value changed by another writer in the meantime is not detected.
+ */
+public class DirtyTracker<K> {
+
+    private static final HashFunction FINGERPRINT = Hashing.farmHashFingerprint64();
+
+    private final Map<K, Long> hashes = new ConcurrentHashMap<>();
+    private final LongAdder changed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * Text is hashed as UTF-8, so a value has the same hash whether its serializer handed out a String or bytes.
+     *
+     * @param serialized a String or a byte[].
+     */
+    public static long hash(final Object serialized) {
+        if (serialized instanceof byte[] bytes) {
+            return FINGERPRINT.hashBytes(bytes).asLong();
+        }
+        return FINGERPRINT.hashString((String) serialized, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * Serializes every value and returns the ones whose serialization differs from the last clean state.
+     *
+     * @param values     the values to check, by key.
+     * @param serializer turns a value into its serialized form, a String or a byte[].
+     * @return the serialized form of every changed value, by key.
+     */
+    public <V, S> Map<K, S> dirty(final Map<K, V> values, final Function<V, S> serializer) {
+        final Map<K, S> dirty = new HashMap<>();
+        for (final Map.Entry<K, V> entry : values.entrySet()) {
+            final S serialized = serializer.apply(entry.getValue());
+            if (!unchanged(entry.getKey(), serialized)) {
+                dirty.put(entry.getKey(), serialized);
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Checks a single value before it is written, counting it as skipped or changed.
+     *
+     * @return true if the serialized form matches the last clean state of the key, so the write can be skipped.
+     */
+    public boolean unchanged(final K key, final Object serialized) {
+        final Long hash = hashes.get(key);
+        if (hash != null && hash == hash(serialized)) {
+            skipped.increment();
+            return true;
+        }
+
+        changed.increment();
+        return false;
+    }
+
+    /**
+     * Records the serialized form of the key, a String or a byte[], as it is stored in the backend.
+     */
+    public void markClean(final K key, final Object serialized) {
+        hashes.put(key, hash(serialized));
+    }
+
+    public void forget(final K key) {
+        hashes.remove(key);
+    }
+
+    public void forgetAll(final Iterable<K> keys) {
+        for (final K key : keys) {
+            hashes.remove(key);
+        }
+    }
+
+    public void clear() {
+        hashes.clear();
+    }
+
+    /**
+     * @return the total amount of values that were found changed and had to be written.
+     */
+    public long getChanged() {
+        return changed.sum();
+    }
+
+    /**
+     * @return the total amount of values whose write was skipped because they were unchanged.
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+}
@@ -39,6 +39,11 @@ public class GoogleCache<K, V> implements Cache<K, V> {
         cache.invalidateAll();
     }
 
+    @Override
+    public void invalidateAll(Iterable<K> keys) {
+        cache.invalidateAll(keys);
+    }
+
     @Override
     public boolean contains(K key) {
         return cache.getIfPresent(key) != null;
@@ -58,4 +63,13 @@ public class GoogleCache<K, V> implements Cache<K, V> {
     public Map<K, V> asMap() {
         return cache.asMap();
     }
+
+    /**
+     * Statistics are only recorded if the cache was built with {@code recordStats()}.
+     */
+    @Override
+    public CacheStats stats() {
+        com.google.common.cache.CacheStats stats = cache.stats();
+        return new CacheStats(stats.hitCount(), stats.missCount(), stats.loadSuccessCount(), stats.loadExceptionCount(), stats.totalLoadTime(), stats.evictionCount());
+    }
 }
@@ -0,0 +1,86 @@
+package wtf.casper.storageapi.cache;
+
+import com.google.gson.reflect.TypeToken;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers the hottest keys of a cache in a file, so they can be loaded again on the next start.
+ */
+@Log
+public class HotKeys<K> {
+
+    @Getter
+    private final File file;
+    private final Class<K> keyClass;
+    @Getter
+    private final int limit;
+
+    /**
+     * @param file     the file the keys are stored in, as a json array.
+     * @param keyClass the class of the keys.
+     * @param limit    the maximum amount of keys to remember.
+     */
+    public HotKeys(final File file, final Class<K> keyClass, final int limit) {
+        this.file = file;
+        this.keyClass = keyClass;
+        this.limit = limit;
+    }
+
+    /**
+     * @return the keys that were written last, or an empty list if there are none.
+     */
+    public List<K> read() {
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            List<K> keys = StorageAPIConstants.getGson().fromJson(reader, TypeToken.getParameterized(List.class, keyClass).getType());
+            return keys == null ? new ArrayList<>() : keys;
+        } catch (IOException | RuntimeException e) {
+            log.warning("Could not read hot keys from " + file.getPath());
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Writes the hottest keys of the cache, replacing the previous ones.
+     */
+    public void write(final Cache<K, ?> cache) {
+        final List<K> keys = new ArrayList<>(cache.hottest(limit));
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        // written next to the file first, so a crash while writing keeps the previous keys
+        final File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            StorageAPIConstants.getGson().toJson(keys, writer);
+        } catch (IOException e) {
+            log.warning("Could not write hot keys to " + file.getPath());
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warning("Could not write hot keys to " + file.getPath());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package wtf.casper.storageapi.cache;
+
+/**
+ * A cache for {@code int} keys backed by an open-addressing hash table, so keys are stored unboxed.
+ * Use the primitive methods like {@link #get(int)} and {@link #put(int, Object)} to avoid boxing entirely,
+ * the {@link Cache} methods unbox their key and are there so the cache can be given to a storage.
+ * <p>
+ * Reads are optimistic and don't block, writes take a lock. The cache is unbounded unless it is given a maximum size,
+ * then it evicts with the CLOCK algorithm like {@link ClockCache}. Shares its table with {@link LongKeyCache}.
+ * {@link #asMap()} returns a copy, changes to it are not written back.
+ */
+public class IntKeyCache<V> extends PrimitiveKeyCache<Integer, V> {
+
+    public IntKeyCache() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize the amount of values the cache should hold without resizing.
+     */
+    public IntKeyCache(final int expectedSize) {
+        this(expectedSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param expectedSize the amount of values the cache should hold without resizing.
+     * @param maximumSize  the maximum amount of cached values.
+     */
+    public IntKeyCache(final int expectedSize, final long maximumSize) {
+        super(expectedSize, maximumSize);
+    }
+
+    @Override
+    Integer box(final long key) {
+        return (int) key;
+    }
+
+    public V get(final int key) {
+        return read(key);
+    }
+
+    public void put(final int key, final V value) {
+        write(key, value, false);
+    }
+
+    /**
+     * @return the value that was already cached for the key, or null if the given value was cached.
+     */
+    public V putIfAbsent(final int key, final V value) {
+        return write(key, value, true);
+    }
+
+    /**
+     * @return the removed value, or null if the key was not cached.
+     */
+    public V remove(final int key) {
+        return delete(key);
+    }
+
+    public boolean contains(final int key) {
+        return has(key);
+    }
+}
@@ -0,0 +1,63 @@
+package wtf.casper.storageapi.cache;
+
+/**
+ * A cache for {@code long} keys backed by an open-addressing hash table, so keys are stored unboxed.
+ * Use the primitive methods like {@link #get(long)} and {@link #put(long, Object)} to avoid boxing entirely,
+ * the {@link Cache} methods unbox their key and are there so the cache can be given to a storage.
+ * <p>
+ * Reads are optimistic and don't block, writes take a lock. The cache is unbounded unless it is given a maximum size,
+ * then it evicts with the CLOCK algorithm like {@link ClockCache}.
+ * {@link #asMap()} returns a copy, changes to it are not written back.
+ */
+public class LongKeyCache<V> extends PrimitiveKeyCache<Long, V> {
+
+    public LongKeyCache() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize the amount of values the cache should hold without resizing.
+     */
+    public LongKeyCache(final int expectedSize) {
+        this(expectedSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param expectedSize the amount of values the cache should hold without resizing.
+     * @param maximumSize  the maximum amount of cached values.
+     */
+    public LongKeyCache(final int expectedSize, final long maximumSize) {
+        super(expectedSize, maximumSize);
+    }
+
+    @Override
+    Long box(final long key) {
+        return key;
+    }
+
+    public V get(final long key) {
+        return read(key);
+    }
+
+    public void put(final long key, final V value) {
+        write(key, value, false);
+    }
+
+    /**
+     * @return the value that was already cached for the key, or null if the given value was cached.
+     */
+    public V putIfAbsent(final long key, final V value) {
+        return write(key, value, true);
+    }
+
+    /**
+     * @return the removed value, or null if the key was not cached.
+     */
+    public V remove(final long key) {
+        return delete(key);
+    }
+
+    public boolean contains(final long key) {
+        return has(key);
+    }
+}
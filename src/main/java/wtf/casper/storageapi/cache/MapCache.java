@@ -2,27 +2,36 @@ package wtf.casper.storageapi.cache;
 
 import lombok.extern.java.Log;
 
-import java.util.Collections;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 @Log
 public class MapCache<K, V> implements Cache<K, V> {
 
+    private static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+
     private final Map<K, V> map;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
 
     public MapCache(Object object) {
         if (object instanceof Map) {
             this.map = (Map<K, V>) object;
         } else {
-            log.warning("Cache must be a java.util.Map, creating a new synchronized WeakHashMap");
-            this.map = Collections.synchronizedMap(new WeakHashMap<>());
+            log.warning("Cache must be a java.util.Map, creating a new ClockCache bounded to " + DEFAULT_MAXIMUM_SIZE + " values");
+            this.map = new ClockCache<K, V>(DEFAULT_MAXIMUM_SIZE).asMap();
         }
     }
 
     @Override
     public V getIfPresent(K key) {
-        return map.get(key);
+        V value = map.get(key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
     }
 
     @Override
@@ -45,6 +54,13 @@ public class MapCache<K, V> implements Cache<K, V> {
         this.map.clear();
     }
 
+    @Override
+    public void invalidateAll(Iterable<K> keys) {
+        for (K key : keys) {
+            this.map.remove(key);
+        }
+    }
+
     @Override
     public boolean contains(K key) {
         return this.map.containsKey(key);
@@ -64,4 +80,12 @@ public class MapCache<K, V> implements Cache<K, V> {
     public Map<K, V> asMap() {
         return this.map;
     }
+
+    /**
+     * Only hits and misses are recorded, a map has no loads or evictions to count.
+     */
+    @Override
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), 0, 0, 0, 0);
+    }
 }
@@ -0,0 +1,67 @@
+package wtf.casper.storageapi.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers keys that were not found in the backend, so repeated lookups of missing keys don't reach it.
+ * Entries expire after their own ttl and the amount of remembered keys is bounded.
+ */
+public class NegativeCache<K> {
+
+    private final com.github.benmanes.caffeine.cache.Cache<K, Boolean> absent;
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * @param ttl         how long a key is remembered as missing.
+     * @param unit        the unit of the ttl.
+     * @param maximumSize the maximum amount of missing keys to remember.
+     */
+    public NegativeCache(final long ttl, final TimeUnit unit, final long maximumSize) {
+        this.absent = Caffeine.newBuilder()
+                .expireAfterWrite(ttl, unit)
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    /**
+     * @return true if the key was recently not found in the backend.
+     */
+    public boolean isAbsent(final K key) {
+        if (absent.getIfPresent(key) == null) {
+            return false;
+        }
+
+        hits.increment();
+        return true;
+    }
+
+    public void markAbsent(final K key) {
+        absent.put(key, Boolean.TRUE);
+    }
+
+    public void invalidate(final K key) {
+        absent.invalidate(key);
+    }
+
+    public void invalidateAll(final Iterable<K> keys) {
+        absent.invalidateAll(keys);
+    }
+
+    public void invalidateAll() {
+        absent.invalidateAll();
+    }
+
+    public long size() {
+        return absent.estimatedSize();
+    }
+
+    /**
+     * @return the amount of lookups answered as missing without reaching the backend.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+}
@@ -0,0 +1,366 @@
+package wtf.casper.storageapi.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.serializer.Serializer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A cache that keeps its values serialized in direct (off-heap) memory, so large amounts of cached values
+ * don't add to garbage collection pauses. Only the keys and the block indexes of every value stay on the heap.
+ * <p>
+ * Direct memory is reserved in slabs of up to 16 MB as the cache grows, up to the maximum size, and is never given
+ * back while the cache is in use. Values are stored in fixed size blocks of those slabs, so the blocks of evicted
+ * or replaced values are reused by values of any size, and a churning cache doesn't allocate direct buffers
+ * that only the garbage collector could free. The least recently used values are evicted once no blocks are free.
+ * Direct memory is limited by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+ * <p>
+ * Every read deserializes a new copy of the value, so changes to a returned value are not seen by the cache
+ * until it is put again. {@link #asMap()} is a deserialized copy for the same reason.
+ */
+public class OffHeapCache<K, V> implements Cache<K, V> {
+
+    private static final int BLOCK_SIZE = 128;
+    private static final int SLAB_BLOCKS = (16 * 1024 * 1024) / BLOCK_SIZE;
+    // evicted at once when blocks run out, so a large value doesn't scan the eviction order once per block
+    private static final int EVICTION_BATCH = 16;
+
+    private final Serializer<V> serializer;
+    private final int maximumBlocks;
+    private final com.github.benmanes.caffeine.cache.Cache<K, Entry> entries;
+    // guards the slabs and free blocks, readers hold the read lock while copying so blocks aren't reused under them
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private int[] free = new int[0];
+    private int freeCount;
+    private int reservedBlocks;
+    private final LongAdder deserializations = new LongAdder();
+    private final LongAdder deserializationTime = new LongAdder();
+
+    /**
+     * Stores values with {@link Serializer#binary(Class)}.
+     *
+     * @param valueClass   the class values are deserialized to.
+     * @param maximumBytes the maximum amount of direct memory the values are stored in.
+     */
+    public OffHeapCache(final Class<V> valueClass, final long maximumBytes) {
+        this(Serializer.binary(valueClass), maximumBytes);
+    }
+
+    /**
+     * @param serializer   the serializer values are stored with, usually the one of the storage.
+     * @param maximumBytes the maximum amount of direct memory the values are stored in.
+     */
+    public OffHeapCache(final Serializer<V> serializer, final long maximumBytes) {
+        this.serializer = serializer;
+        this.maximumBlocks = (int) Math.min(Integer.MAX_VALUE, maximumBytes / BLOCK_SIZE);
+        this.entries = Caffeine.newBuilder()
+                .maximumWeight(maximumBlocks)
+                .weigher((K key, Entry entry) -> entry.blocks.length)
+                // frees the blocks on the calling thread, so they can be reused right away
+                .executor(Runnable::run)
+                .removalListener((K key, Entry entry, com.github.benmanes.caffeine.cache.RemovalCause cause) -> release(entry))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return the serialized value, or null if it is larger than the whole cache.
+     */
+    @Nullable
+    private Entry serialize(final V value) {
+        final byte[] bytes = serializer.serialize(value);
+        final int count = Math.max(1, (bytes.length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        int[] blocks = allocate(count);
+        while (blocks == null) {
+            if (!evict()) {
+                return null;
+            }
+            blocks = allocate(count);
+        }
+
+        // the blocks aren't shared until the entry is published, so they are written without the lock
+        for (int i = 0; i < blocks.length; i++) {
+            final int offset = i * BLOCK_SIZE;
+            slab(blocks[i]).put(position(blocks[i]), bytes, offset, Math.min(BLOCK_SIZE, bytes.length - offset));
+        }
+        return new Entry(blocks, bytes.length);
+    }
+
+    @Nullable
+    private byte[] read(final Entry entry) {
+        lock.readLock().lock();
+        try {
+            // evicted and possibly reused by another value since it was looked up
+            if (entry.released) {
+                return null;
+            }
+
+            final byte[] bytes = new byte[entry.length];
+            for (int i = 0; i < entry.blocks.length; i++) {
+                final int offset = i * BLOCK_SIZE;
+                slab(entry.blocks[i]).get(position(entry.blocks[i]), bytes, offset, Math.min(BLOCK_SIZE, entry.length - offset));
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    private V deserialize(final Entry entry) {
+        final long start = System.nanoTime();
+        final byte[] bytes = read(entry);
+        if (bytes == null) {
+            return null;
+        }
+
+        final V value = serializer.deserialize(bytes);
+        deserializationTime.add(System.nanoTime() - start);
+        deserializations.increment();
+        return value;
+    }
+
+    @Nullable
+    private int[] allocate(final int count) {
+        lock.writeLock().lock();
+        try {
+            while (freeCount < count && reservedBlocks < maximumBlocks) {
+                reserveSlab();
+            }
+            if (freeCount < count) {
+                return null;
+            }
+
+            freeCount -= count;
+            return Arrays.copyOfRange(free, freeCount, freeCount + count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void reserveSlab() {
+        final int blocks = Math.min(SLAB_BLOCKS, maximumBlocks - reservedBlocks);
+        slabs.add(ByteBuffer.allocateDirect(blocks * BLOCK_SIZE));
+        if (free.length < freeCount + blocks) {
+            free = Arrays.copyOf(free, freeCount + blocks);
+        }
+        // handed out from the end, so the first blocks of the slab are used first
+        for (int i = blocks - 1; i >= 0; i--) {
+            free[freeCount++] = reservedBlocks + i;
+        }
+        reservedBlocks += blocks;
+    }
+
+    private void release(final Entry entry) {
+        lock.writeLock().lock();
+        try {
+            if (entry.released) {
+                return;
+            }
+            entry.released = true;
+            for (final int block : entry.blocks) {
+                free[freeCount++] = block;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // caffeine only evicts once the weight is exceeded, which it can't be while no blocks are free, so the least
+    // recently used values are evicted here
+    private boolean evict() {
+        final Map<K, Entry> coldest = entries.policy().eviction().map(eviction -> eviction.coldest(EVICTION_BATCH)).orElse(Map.of());
+        if (coldest.isEmpty()) {
+            return false;
+        }
+
+        coldest.forEach((key, entry) -> entries.asMap().remove(key, entry));
+        return true;
+    }
+
+    private ByteBuffer slab(final int block) {
+        return slabs.get(block / SLAB_BLOCKS);
+    }
+
+    private static int position(final int block) {
+        return (block % SLAB_BLOCKS) * BLOCK_SIZE;
+    }
+
+    private boolean sameValue(final Entry entry, final byte[] expected) {
+        final byte[] bytes = read(entry);
+        return bytes != null && Arrays.equals(bytes, expected);
+    }
+
+    @Override
+    public V getIfPresent(K key) {
+        final Entry entry = entries.getIfPresent(key);
+        return entry == null ? null : deserialize(entry);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        final Entry entry = serialize(value);
+        if (entry == null) {
+            // too large to cache, but the previous value mustn't be served anymore
+            entries.invalidate(key);
+            return;
+        }
+        entries.put(key, entry);
+    }
+
+    @Override
+    public void putAll(Map<K, V> map) {
+        map.forEach(this::put);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        final Entry entry = serialize(value);
+        if (entry == null) {
+            return getIfPresent(key);
+        }
+
+        final Entry previous = entries.asMap().putIfAbsent(key, entry);
+        if (previous == null) {
+            return null;
+        }
+        release(entry);
+        return deserialize(previous);
+    }
+
+    @Override
+    public boolean replace(K key, V expected, V value) {
+        // equal bytes hold the same serialized value
+        final byte[] expectedBytes = serializer.serialize(expected);
+        if (value == null) {
+            final boolean[] removed = new boolean[1];
+            entries.asMap().computeIfPresent(key, (k, current) -> {
+                removed[0] = sameValue(current, expectedBytes);
+                return removed[0] ? null : current;
+            });
+            return removed[0];
+        }
+
+        final Entry entry = serialize(value);
+        if (entry == null) {
+            return replace(key, expected, null);
+        }
+
+        final boolean[] replaced = new boolean[1];
+        entries.asMap().computeIfPresent(key, (k, current) -> {
+            replaced[0] = sameValue(current, expectedBytes);
+            return replaced[0] ? entry : current;
+        });
+        if (!replaced[0]) {
+            release(entry);
+        }
+        return replaced[0];
+    }
+
+    @Override
+    public void invalidate(K key) {
+        entries.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    @Override
+    public void invalidateAll(Iterable<K> keys) {
+        entries.invalidateAll(keys);
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return entries.asMap().containsKey(key);
+    }
+
+    @Override
+    public long size() {
+        return entries.estimatedSize();
+    }
+
+    @Override
+    public void cleanUp() {
+        entries.cleanUp();
+    }
+
+    @Override
+    public Map<K, V> asMap() {
+        final Map<K, V> map = new HashMap<>();
+        entries.asMap().forEach((key, entry) -> {
+            final V value = deserialize(entry);
+            if (value != null) {
+                map.put(key, value);
+            }
+        });
+        return map;
+    }
+
+    @Override
+    public CacheStats stats() {
+        com.github.benmanes.caffeine.cache.stats.CacheStats stats = entries.stats();
+        return new CacheStats(stats.hitCount(), stats.missCount(), stats.loadSuccessCount(), stats.loadFailureCount(), stats.totalLoadTime(), stats.evictionCount());
+    }
+
+    /**
+     * @return the size of the blocks holding values, in bytes.
+     */
+    public long getOffHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) (reservedBlocks - freeCount) * BLOCK_SIZE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the direct memory reserved by this cache, in bytes, it never exceeds the maximum size.
+     */
+    public long getReservedBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) reservedBlocks * BLOCK_SIZE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the amount of values deserialized from off-heap memory.
+     */
+    public long getDeserializations() {
+        return deserializations.sum();
+    }
+
+    /**
+     * @return the total time spent deserializing values, in nanoseconds.
+     */
+    public long getDeserializationTime() {
+        return deserializationTime.sum();
+    }
+
+    private static final class Entry {
+        private final int[] blocks;
+        private final int length;
+        // guarded by the lock, set once the blocks are back in the free list
+        private boolean released;
+
+        private Entry(final int[] blocks, final int length) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+}
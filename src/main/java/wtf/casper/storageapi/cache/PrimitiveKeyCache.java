@@ -0,0 +1,340 @@
+package wtf.casper.storageapi.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The open-addressing hash table behind {@link IntKeyCache} and {@link LongKeyCache}. Keys are stored as {@code long},
+ * an {@code int} key is widened, so both caches share one implementation without boxing.
+ * <p>
+ * Reads are optimistic and don't block, writes take a lock. Once the table holds its maximum size, inserting a key
+ * evicts one with the CLOCK (second chance) algorithm like {@link ClockCache}: the hand sweeps the slots, clearing the
+ * referenced bit of values read since its last visit and evicting the first value that wasn't.
+ */
+abstract class PrimitiveKeyCache<K extends Number, V> implements Cache<K, V> {
+
+    private static final int MINIMUM_CAPACITY = 16;
+    // resized once half full, linear probing degrades quickly above that
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final StampedLock lock = new StampedLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final long maximumSize;
+    private long[] keys;
+    // a null value marks an empty slot
+    private Object[] values;
+    // set by reads without the lock, a lost or misplaced bit only makes eviction slightly less accurate
+    private boolean[] referenced;
+    private int size;
+    private int hand;
+
+    /**
+     * @param expectedSize the amount of values the cache should hold without resizing.
+     * @param maximumSize  the maximum amount of cached values.
+     */
+    PrimitiveKeyCache(final int expectedSize, final long maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        this.maximumSize = maximumSize;
+        allocate(tableSizeFor((int) Math.ceil(Math.min(expectedSize, maximumSize) / LOAD_FACTOR)));
+    }
+
+    /**
+     * @return the key as the type of the {@link Cache} methods.
+     */
+    abstract K box(long key);
+
+    private void allocate(final int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.referenced = new boolean[capacity];
+    }
+
+    private static int tableSizeFor(final int capacity) {
+        return Math.max(MINIMUM_CAPACITY, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+    }
+
+    private static int hash(final long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * @return the slot of the key, or -1 if it is not in the table.
+     */
+    private static int indexOf(final long[] keys, final Object[] values, final long key) {
+        final int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        // bounded, an optimistic read may see a table that is being changed
+        for (int probes = 0; probes <= mask; probes++) {
+            if (values[index] == null) {
+                return -1;
+            }
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    V read(final long key) {
+        long stamp = lock.tryOptimisticRead();
+        Object value = null;
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        boolean[] referenced = this.referenced;
+        int index = -1;
+        if (keys.length == values.length && keys.length == referenced.length) {
+            index = indexOf(keys, values, key);
+            value = index < 0 ? null : values[index];
+        }
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                referenced = this.referenced;
+                index = indexOf(this.keys, this.values, key);
+                value = index < 0 ? null : this.values[index];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        if (value == null) {
+            misses.increment();
+            return null;
+        }
+
+        // skip the write when the bit is already set, so hot keys don't bounce their cache line between cores
+        if (!referenced[index]) {
+            referenced[index] = true;
+        }
+        hits.increment();
+        return (V) value;
+    }
+
+    /**
+     * @return the value that was already cached for the key, or null if the given value was cached.
+     */
+    V write(final long key, final V value, final boolean onlyIfAbsent) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+
+        final long stamp = lock.writeLock();
+        try {
+            int index = indexOf(keys, values, key);
+            if (index >= 0) {
+                final V previous = (V) values[index];
+                if (!onlyIfAbsent) {
+                    values[index] = value;
+                }
+                return previous;
+            }
+
+            if (size >= maximumSize) {
+                evict();
+            }
+            if (size + 1 > keys.length * LOAD_FACTOR) {
+                resize(keys.length << 1);
+            }
+
+            final int mask = keys.length - 1;
+            index = hash(key) & mask;
+            while (values[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            values[index] = value;
+            referenced[index] = false;
+            size++;
+            return null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void evict() {
+        final int mask = keys.length - 1;
+        // ends within two sweeps, the first one clears every bit it passes
+        while (true) {
+            hand &= mask;
+            if (values[hand] != null) {
+                if (!referenced[hand]) {
+                    removeAt(hand);
+                    evictions.increment();
+                    return;
+                }
+                referenced[hand] = false;
+            }
+            hand++;
+        }
+    }
+
+    private void resize(final int capacity) {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        final boolean[] oldReferenced = referenced;
+        allocate(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+
+            int index = hash(oldKeys[i]) & mask;
+            while (values[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+            referenced[index] = oldReferenced[i];
+        }
+    }
+
+    /**
+     * @return the removed value, or null if the key was not cached.
+     */
+    V delete(final long key) {
+        final long stamp = lock.writeLock();
+        try {
+            final int index = indexOf(keys, values, key);
+            return index < 0 ? null : removeAt(index);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private V removeAt(int index) {
+        final V previous = (V) values[index];
+        // shift the following entries back instead of leaving a tombstone, so lookups stay short
+        final int mask = keys.length - 1;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (values[next] == null) {
+                break;
+            }
+
+            final int home = hash(keys[next]) & mask;
+            final boolean stays = index <= next ? (index < home && home <= next) : (index < home || home <= next);
+            if (!stays) {
+                keys[index] = keys[next];
+                values[index] = values[next];
+                referenced[index] = referenced[next];
+                index = next;
+            }
+        }
+        keys[index] = 0;
+        values[index] = null;
+        referenced[index] = false;
+        size--;
+        return previous;
+    }
+
+    boolean has(final long key) {
+        final long stamp = lock.readLock();
+        try {
+            return indexOf(keys, values, key) >= 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public V getIfPresent(K key) {
+        return key == null ? null : read(key.longValue());
+    }
+
+    @Override
+    public void put(K key, V value) {
+        write(key.longValue(), value, false);
+    }
+
+    @Override
+    public void putAll(Map<K, V> map) {
+        map.forEach(this::put);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return write(key.longValue(), value, true);
+    }
+
+    @Override
+    public void invalidate(K key) {
+        delete(key.longValue());
+    }
+
+    @Override
+    public void invalidateAll() {
+        final long stamp = lock.writeLock();
+        try {
+            allocate(MINIMUM_CAPACITY);
+            size = 0;
+            hand = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void invalidateAll(Iterable<K> keys) {
+        for (K key : keys) {
+            delete(key.longValue());
+        }
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return key != null && has(key.longValue());
+    }
+
+    @Override
+    public long size() {
+        final long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void cleanUp() {
+        // No-op
+    }
+
+    /**
+     * @return a copy of the cached values, changes to it are not written back.
+     */
+    @Override
+    public Map<K, V> asMap() {
+        final long stamp = lock.readLock();
+        try {
+            final Map<K, V> map = new HashMap<>(size * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null) {
+                    map.put(box(keys[i]), (V) values[i]);
+                }
+            }
+            return map;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Only hits, misses and evictions are recorded, the table has no loads to count.
+     */
+    @Override
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), 0, 0, 0, evictions.sum());
+    }
+}
@@ -0,0 +1,271 @@
+package wtf.casper.storageapi.cache;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Loads missing keys into a cache so that concurrent misses for the same key share one backend read and one future.
+ * Invalidating a key while it is loading makes the load skip the cache, so a value that was saved or removed
+ * in the meantime isn't overwritten by the older backend copy.
+ * Keys that are not found can be remembered in a {@link NegativeCache}, which is cleared for a key when it is invalidated.
+ * Cached values that may be outdated, like ones restored from a {@link CacheSnapshot}, can be marked for revalidation:
+ * their first read still returns the cached value and reloads it in the background.
+ * <p>
+ * Keys have to be invalidated here before they are invalidated in the cache, otherwise a load finishing in between
+ * would cache the value again.
+ */
+public class SingleFlightLoader<K, V> {
+
+    private final Supplier<Cache<K, V>> cache;
+    private final Map<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final Set<K> unverified = ConcurrentHashMap.newKeySet();
+    private final Set<BulkLoad> bulkLoads = ConcurrentHashMap.newKeySet();
+    private volatile NegativeCache<K> negativeCache;
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+
+    /**
+     * @param cache supplies the cache loaded values are put in, so the storage can still swap its cache.
+     */
+    public SingleFlightLoader(final Supplier<Cache<K, V>> cache) {
+        this.cache = cache;
+    }
+
+    @Nullable
+    public NegativeCache<K> negativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * @param negativeCache the cache to remember missing keys in, or null to always look them up.
+     */
+    public void negativeCache(@Nullable final NegativeCache<K> negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
+    /**
+     * @return true if the key is remembered as missing from the backend.
+     */
+    public boolean isAbsent(final K key) {
+        final NegativeCache<K> negativeCache = this.negativeCache;
+        return negativeCache != null && negativeCache.isAbsent(key);
+    }
+
+    /**
+     * @param key    the key to load.
+     * @param loader reads the key from the backend, completing with null if it does not exist.
+     * @return the cached value, or the future of the load that is in flight for the key.
+     */
+    public CompletableFuture<V> get(final K key, final Function<K, CompletableFuture<V>> loader) {
+        final V cached = cache.get().getIfPresent(key);
+        if (cached != null) {
+            if (unverified.remove(key)) {
+                reload(key, cached, loader);
+            }
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        if (isAbsent(key)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+
+        final long start = System.nanoTime();
+        loader.apply(key).whenComplete((value, throwable) -> {
+            loadTime.add(System.nanoTime() - start);
+            if (throwable != null) {
+                loadFailures.increment();
+                loading.remove(key, future);
+                future.completeExceptionally(throwable);
+                return;
+            }
+
+            loadSuccesses.increment();
+            final AtomicReference<V> result = new AtomicReference<>(value);
+            // only cache the result if nothing invalidated the key while it was loading, checked and published
+            // atomically so an invalidation can't slip in between and have its save or remove overwritten
+            loading.computeIfPresent(key, (k, current) -> {
+                if (current != future) {
+                    return current;
+                }
+
+                final NegativeCache<K> negativeCache = this.negativeCache;
+                if (value != null) {
+                    final V previous = cache.get().putIfAbsent(key, value);
+                    if (previous != null) {
+                        result.set(previous);
+                    }
+                } else if (negativeCache != null) {
+                    negativeCache.markAbsent(key);
+                }
+                return null;
+            });
+            future.complete(result.get());
+        });
+        return future;
+    }
+
+    /**
+     * Reloads a cached value in the background, replacing it once the backend copy is read.
+     *
+     * @param cached the value being reloaded, only replaced if it is still the cached one.
+     */
+    private void reload(final K key, final V cached, final Function<K, CompletableFuture<V>> loader) {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        if (loading.putIfAbsent(key, future) != null) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        loader.apply(key).whenComplete((value, throwable) -> {
+            loadTime.add(System.nanoTime() - start);
+            if (throwable != null) {
+                loadFailures.increment();
+                loading.remove(key, future);
+                future.completeExceptionally(throwable);
+                return;
+            }
+
+            loadSuccesses.increment();
+            // a save or remove while reloading is newer than the backend copy, so only the value being reloaded is replaced
+            loading.computeIfPresent(key, (k, current) -> {
+                if (current != future) {
+                    return current;
+                }
+
+                cache.get().replace(key, cached, value);
+                return null;
+            });
+            future.complete(value);
+        });
+    }
+
+    /**
+     * Starts a read of many keys that doesn't go through {@link #get(Object, Function)}, like a bulk lookup or a preload.
+     * Its values are cached through {@link BulkLoad#publish(Object, Object)}, which skips keys invalidated since the read
+     * started. Close it once the read is done.
+     */
+    public BulkLoad bulkLoad() {
+        final BulkLoad bulkLoad = new BulkLoad();
+        bulkLoads.add(bulkLoad);
+        return bulkLoad;
+    }
+
+    /**
+     * Marks cached values as possibly outdated, each is reloaded in the background on its next read.
+     */
+    public void revalidate(final Collection<K> keys) {
+        unverified.addAll(keys);
+    }
+
+    public void invalidate(final K key) {
+        loading.remove(key);
+        unverified.remove(key);
+        for (final BulkLoad bulkLoad : bulkLoads) {
+            bulkLoad.invalidate(key);
+        }
+        final NegativeCache<K> negativeCache = this.negativeCache;
+        if (negativeCache != null) {
+            negativeCache.invalidate(key);
+        }
+    }
+
+    public void invalidateAll(final Iterable<K> keys) {
+        for (final K key : keys) {
+            loading.remove(key);
+            unverified.remove(key);
+            for (final BulkLoad bulkLoad : bulkLoads) {
+                bulkLoad.invalidate(key);
+            }
+        }
+        final NegativeCache<K> negativeCache = this.negativeCache;
+        if (negativeCache != null) {
+            negativeCache.invalidateAll(keys);
+        }
+    }
+
+    public void invalidateAll() {
+        loading.clear();
+        unverified.clear();
+        for (final BulkLoad bulkLoad : bulkLoads) {
+            bulkLoad.invalidateAll();
+        }
+        final NegativeCache<K> negativeCache = this.negativeCache;
+        if (negativeCache != null) {
+            negativeCache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the load counters of this loader, lookups are counted by the cache itself.
+     */
+    public CacheStats stats() {
+        return new CacheStats(0, 0, loadSuccesses.sum(), loadFailures.sum(), loadTime.sum(), 0);
+    }
+
+    /**
+     * @return the amount of keys currently loading.
+     */
+    public int size() {
+        return loading.size();
+    }
+
+    /**
+     * A read of many keys started by {@link #bulkLoad()}.
+     */
+    public final class BulkLoad implements AutoCloseable {
+
+        private final Set<K> invalidated = new HashSet<>();
+        private boolean all;
+
+        private BulkLoad() {
+        }
+
+        private synchronized void invalidate(final K key) {
+            if (!all) {
+                invalidated.add(key);
+            }
+        }
+
+        private synchronized void invalidateAll() {
+            all = true;
+            invalidated.clear();
+        }
+
+        /**
+         * Caches a value read by this load, unless the key was invalidated since the load started or is already cached.
+         *
+         * @return the value to hand out, the cached one if there is one.
+         */
+        public synchronized V publish(final K key, final V value) {
+            if (all || invalidated.contains(key)) {
+                final V cached = cache.get().getIfPresent(key);
+                return cached == null ? value : cached;
+            }
+
+            final V previous = cache.get().putIfAbsent(key, value);
+            return previous == null ? value : previous;
+        }
+
+        @Override
+        public void close() {
+            bulkLoads.remove(this);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package wtf.casper.storageapi.cache;
+
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Puts a second, usually larger, cache behind the cache a storage uses, for example an {@link OffHeapCache}.
+ * Values are written to both tiers. A miss on the first tier falls through to the second one
+ * and promotes the value back to the first tier before the storage has to go to the backend.
+ * <p>
+ * {@link #asMap()} returns the first tier only, which holds the live objects that {@link wtf.casper.storageapi.KVStorage#write()} persists.
+ */
+@Getter
+public class TieredCache<K, V> implements Cache<K, V> {
+
+    private final Cache<K, V> first;
+    private final Cache<K, V> second;
+
+    public TieredCache(final Cache<K, V> first, final Cache<K, V> second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public V getIfPresent(K key) {
+        V value = first.getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+
+        value = second.getIfPresent(key);
+        if (value != null) {
+            final V previous = first.putIfAbsent(key, value);
+            return previous == null ? value : previous;
+        }
+        return null;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        first.put(key, value);
+        second.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<K, V> map) {
+        first.putAll(map);
+        second.putAll(map);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        final V previous = first.putIfAbsent(key, value);
+        if (previous != null) {
+            return previous;
+        }
+
+        second.put(key, value);
+        return null;
+    }
+
+    @Override
+    public boolean replace(K key, V expected, V value) {
+        if (!first.replace(key, expected, value)) {
+            return false;
+        }
+
+        if (value == null) {
+            second.invalidate(key);
+        } else {
+            second.put(key, value);
+        }
+        return true;
+    }
+
+    @Override
+    public void invalidate(K key) {
+        first.invalidate(key);
+        second.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        first.invalidateAll();
+        second.invalidateAll();
+    }
+
+    @Override
+    public void invalidateAll(Iterable<K> keys) {
+        first.invalidateAll(keys);
+        second.invalidateAll(keys);
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return first.contains(key) || second.contains(key);
+    }
+
+    @Override
+    public long size() {
+        return first.size();
+    }
+
+    @Override
+    public void cleanUp() {
+        first.cleanUp();
+        second.cleanUp();
+    }
+
+    @Override
+    public Map<K, V> asMap() {
+        return first.asMap();
+    }
+
+    @Override
+    public Collection<K> hottest(int limit) {
+        return first.hottest(limit);
+    }
+
+    /**
+     * Hits on the second tier are counted as misses of the first tier, see {@link #getSecond()} for its own statistics.
+     */
+    @Override
+    public CacheStats stats() {
+        return first.stats();
+    }
+}
@@ -0,0 +1,191 @@
+package wtf.casper.storageapi.cache;
+
+import lombok.extern.java.Log;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+/**
+ * Collects saved values and writes them to the backend in batches.
+ * Repeated saves of the same key are coalesced into a single write of the latest value.
+ * <p>
+ * Dirty values are held by the queue itself until they have been written, so evicting them from the
+ * storage cache can't lose them, and lookups should check {@link #pending(Object)} before the backend.
+ */
+@Log
+public class WriteBehindQueue<K, V> {
+
+    private final Map<K, Pending<V>> dirty = new ConcurrentHashMap<>();
+    private final Function<Collection<V>, CompletableFuture<?>> writer;
+    private final int flushThreshold;
+    private final ScheduledFuture<?> task;
+    private CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param interval       how often dirty values are flushed.
+     * @param unit           the unit of the interval.
+     * @param flushThreshold the amount of dirty values that triggers a flush before the interval passes.
+     * @param writer         writes a batch of values straight to the backend.
+     */
+    public WriteBehindQueue(final long interval, final TimeUnit unit, final int flushThreshold, final Function<Collection<V>, CompletableFuture<?>> writer) {
+        this.writer = writer;
+        this.flushThreshold = flushThreshold;
+        this.task = StorageAPIConstants.SCHEDULER.scheduleWithFixedDelay(this::flushIfIdle, interval, interval, unit);
+    }
+
+    /**
+     * Marks the key as dirty with the given value, replacing any value that has not been written yet.
+     */
+    public void add(final K key, final V value) {
+        dirty.put(key, new Pending<>(value));
+        if (dirty.size() >= flushThreshold) {
+            flushIfIdle();
+        }
+    }
+
+    /**
+     * @return the value waiting to be written for the key, or null if there is none.
+     */
+    @Nullable
+    public V pending(final K key) {
+        final Pending<V> pending = dirty.get(key);
+        return pending == null ? null : pending.value;
+    }
+
+    /**
+     * Drops the pending write of the key, used when the key is removed from the storage.
+     * A flush that is already running skips the key if it did not reach it yet, but may have sent it already,
+     * so the removal from the backend should only run once the returned future completes.
+     *
+     * @return a future that completes once no running flush can write the key anymore.
+     */
+    public CompletableFuture<Void> discard(final K key) {
+        dirty.remove(key);
+        return flushed();
+    }
+
+    public CompletableFuture<Void> discardAll(final Iterable<K> keys) {
+        for (final K key : keys) {
+            dirty.remove(key);
+        }
+        return flushed();
+    }
+
+    private synchronized CompletableFuture<Void> flushed() {
+        return inFlight.isDone() ? CompletableFuture.completedFuture(null) : inFlight.handle((ignored, throwable) -> null);
+    }
+
+    public void clear() {
+        dirty.clear();
+    }
+
+    /**
+     * @return the amount of values waiting to be written.
+     */
+    public int size() {
+        return dirty.size();
+    }
+
+    /**
+     * Writes every dirty value. Flushes never overlap, a flush requested while another one is running starts after it.
+     * Values of a failed flush stay pending and are written again by the next one.
+     *
+     * @return a future that completes once the values that were dirty at the time of the flush are written,
+     * or exceptionally if the writer failed.
+     */
+    public synchronized CompletableFuture<Void> flush() {
+        inFlight = inFlight.handle((ignored, throwable) -> null).thenCompose(ignored -> write());
+        return inFlight;
+    }
+
+    /**
+     * Stops the periodic flushing and writes everything that is still dirty.
+     *
+     * @return a future that completes exceptionally if values are still pending afterwards, they are kept and can be
+     * written with {@link #flush()}.
+     */
+    public CompletableFuture<Void> close() {
+        task.cancel(false);
+        return flush().thenRun(() -> {
+            if (!dirty.isEmpty()) {
+                throw new IllegalStateException(dirty.size() + " values are still pending after closing");
+            }
+        });
+    }
+
+    private synchronized void flushIfIdle() {
+        if (inFlight.isDone() && !dirty.isEmpty()) {
+            flush();
+        }
+    }
+
+    private CompletableFuture<Void> write() {
+        if (dirty.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final List<Map.Entry<K, Pending<V>>> snapshot = new ArrayList<>(dirty.size());
+        for (final Map.Entry<K, Pending<V>> entry : dirty.entrySet()) {
+            snapshot.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+
+        // skips keys discarded after the snapshot, if the writer didn't get to them yet
+        final Collection<V> values = new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                return snapshot.stream().filter(this::kept).map(entry -> entry.getValue().value).iterator();
+            }
+
+            @Override
+            public int size() {
+                return (int) snapshot.stream().filter(this::kept).count();
+            }
+
+            private boolean kept(final Map.Entry<K, Pending<V>> entry) {
+                return dirty.containsKey(entry.getKey());
+            }
+        };
+
+        CompletableFuture<?> written;
+        try {
+            written = writer.apply(values);
+        } catch (final RuntimeException e) {
+            written = CompletableFuture.failedFuture(e);
+        }
+
+        return written.handle((result, throwable) -> {
+            if (throwable != null) {
+                log.log(Level.WARNING, "Failed to flush " + snapshot.size() + " values, they stay pending", throwable);
+                throw throwable instanceof CompletionException completion ? completion : new CompletionException(throwable);
+            }
+
+            // only clear entries that weren't saved again while the batch was being written
+            for (final Map.Entry<K, Pending<V>> entry : snapshot) {
+                dirty.remove(entry.getKey(), entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    // wrapper so every save is a distinct entry, even when the same instance is saved again
+    private static final class Pending<V> {
+        private final V value;
+
+        private Pending(final V value) {
+            this.value = value;
+        }
+    }
+}
@@ -3,192 +3,147 @@ package wtf.casper.storageapi.id.utils;
 import wtf.casper.storageapi.id.Id;
 import wtf.casper.storageapi.id.exceptions.IdNotFoundException;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.List;
 
 public final class IdUtils {
 
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    // the @Id lookup only depends on the class, so it's resolved once and reused for every call
+    private static final ClassValue<IdMetadata> METADATA = new ClassValue<>() {
+        @Override
+        protected IdMetadata computeValue(final Class<?> type) {
+            return IdMetadata.of(type);
+        }
+    };
+
     public static Object getId(final Object instance) {
         return getId(instance.getClass(), instance);
     }
 
     public static Object getId(final Class<?> clazz, final Object instance) {
-
-        final List<Field> fields = new ArrayList<>();
-        for (Field field1 : clazz.getDeclaredFields()) {
-            if (!Modifier.isStatic(field1.getModifiers())) {
-                if (!Modifier.isTransient(field1.getModifiers())) {
-                    fields.add(field1);
-                }
-            }
-        }
-
-        for (final Field field : fields) {
-            field.setAccessible(true);
-
-            if (!field.isAnnotationPresent(Id.class)) {
-                continue;
-            }
-
-            try {
-                return field.get(instance);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        final IdMetadata metadata = METADATA.get(clazz);
+        if (metadata.getter == null) {
+            new IdNotFoundException(clazz).printStackTrace();
+            return null;
         }
 
         try {
-            final Method method = IdUtils.getIdMethod(clazz);
-            return method.invoke(instance);
-        } catch (Exception e) {
+            return metadata.getter.invokeExact(instance);
+        } catch (Throwable e) {
             e.printStackTrace();
             return null;
         }
-
     }
 
     public static String getIdName(final Class<?> type) {
-
-        final List<Field> fields = new ArrayList<>();
-        for (Field field1 : type.getDeclaredFields()) {
-            if (!Modifier.isStatic(field1.getModifiers())) {
-                if (!Modifier.isTransient(field1.getModifiers())) {
-                    fields.add(field1);
-                }
-            }
-        }
-
-        for (final Field field : fields) {
-            field.setAccessible(true);
-
-            if (!field.isAnnotationPresent(Id.class)) {
-                continue;
-            }
-
-            return field.getName();
-        }
-
-        try {
-            final Method method = IdUtils.getIdMethod(type);
-
-            return method.getName();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+        final IdMetadata metadata = METADATA.get(type);
+        if (metadata.name == null) {
+            new IdNotFoundException(type).printStackTrace();
         }
 
+        return metadata.name;
     }
 
     public static Class<?> getIdClass(final Class<?> type) {
-
-        final List<Field> fields = new ArrayList<>();
-        for (Field field1 : type.getDeclaredFields()) {
-            if (!Modifier.isStatic(field1.getModifiers())) {
-                if (!Modifier.isTransient(field1.getModifiers())) {
-                    fields.add(field1);
-                }
-            }
+        final IdMetadata metadata = METADATA.get(type);
+        if (metadata.declaringClass == null) {
+            new IdNotFoundException(type).printStackTrace();
         }
 
-        for (final Field field : fields) {
-            field.setAccessible(true);
-
-            if (!field.isAnnotationPresent(Id.class)) {
-                continue;
-            }
+        return metadata.declaringClass;
+    }
 
-            return field.getDeclaringClass();
+    public static Field getIdField(final Class<?> type) throws IdNotFoundException {
+        final Field field = METADATA.get(type).field;
+        if (field == null) {
+            throw new IdNotFoundException(type);
         }
 
-        try {
-            final Method method = IdUtils.getIdMethod(type);
-
-            return method.getDeclaringClass();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+        return field;
     }
 
-    private static Method getIdMethod(final Class<?> type) throws IdNotFoundException {
-
-        final List<Method> methods = new ArrayList<>();
-        for (Method method1 : type.getDeclaredMethods()) {
-            if (!Modifier.isStatic(method1.getModifiers())) {
-                if (!Modifier.isTransient(method1.getModifiers())) {
-                    methods.add(method1);
-                }
-            }
+    public static Class<?> getIdType(Class<?> clazz) {
+        final IdMetadata metadata = METADATA.get(clazz);
+        if (metadata.type == null) {
+            new IdNotFoundException(clazz).printStackTrace();
         }
 
-        for (final Method method : methods) {
-            method.setAccessible(true);
+        return metadata.type;
+    }
 
-            if (!method.isAnnotationPresent(Id.class)) {
+    private static Field findIdField(final Class<?> type) {
+        for (final Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
                 continue;
             }
 
-            return method;
-        }
-
-        throw new IdNotFoundException(type);
-    }
-
-    public static Field getIdField(final Class<?> type) throws IdNotFoundException {
-
-        final List<Field> fields = new ArrayList<>();
-        for (Field field1 : type.getDeclaredFields()) {
-            if (!Modifier.isStatic(field1.getModifiers())) {
-                if (!Modifier.isTransient(field1.getModifiers())) {
-                    fields.add(field1);
-                }
+            if (field.isAnnotationPresent(Id.class)) {
+                field.setAccessible(true);
+                return field;
             }
         }
 
-        for (final Field field : fields) {
-            field.setAccessible(true);
+        return null;
+    }
 
-            if (!field.isAnnotationPresent(Id.class)) {
+    private static Method findIdMethod(final Class<?> type) {
+        for (final Method method : type.getDeclaredMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || Modifier.isTransient(method.getModifiers())) {
                 continue;
             }
 
-            return field;
+            if (method.isAnnotationPresent(Id.class)) {
+                method.setAccessible(true);
+                return method;
+            }
         }
 
-        throw new IdNotFoundException(type);
+        return null;
     }
 
-
-    public static Class<?> getIdType(Class<?> clazz) {
-        final List<Field> fields = new ArrayList<>();
-        for (Field field1 : clazz.getDeclaredFields()) {
-            if (!Modifier.isStatic(field1.getModifiers())) {
-                if (!Modifier.isTransient(field1.getModifiers())) {
-                    fields.add(field1);
+    /**
+     * The resolved @Id field or method of a class, with a getter compiled to a {@link MethodHandle}.
+     * Every member is null when the class has no @Id.
+     */
+    private static final class IdMetadata {
+        private final Field field;
+        private final MethodHandle getter;
+        private final String name;
+        private final Class<?> type;
+        private final Class<?> declaringClass;
+
+        private IdMetadata(final Field field, final MethodHandle getter, final String name, final Class<?> type, final Class<?> declaringClass) {
+            this.field = field;
+            this.getter = getter;
+            this.name = name;
+            this.type = type;
+            this.declaringClass = declaringClass;
+        }
+
+        private static IdMetadata of(final Class<?> type) {
+            try {
+                final Field field = findIdField(type);
+                if (field != null) {
+                    final MethodHandle getter = MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+                    return new IdMetadata(field, getter, field.getName(), field.getType(), field.getDeclaringClass());
                 }
-            }
-        }
-
-        for (final Field field : fields) {
-            field.setAccessible(true);
 
-            if (!field.isAnnotationPresent(Id.class)) {
-                continue;
+                final Method method = findIdMethod(type);
+                if (method != null) {
+                    final MethodHandle getter = MethodHandles.lookup().unreflect(method).asType(GETTER_TYPE);
+                    return new IdMetadata(null, getter, method.getName(), method.getReturnType(), method.getDeclaringClass());
+                }
+            } catch (final IllegalAccessException e) {
+                e.printStackTrace();
             }
 
-            return field.getType();
-        }
-
-        try {
-            final Method method = IdUtils.getIdMethod(clazz);
-
-            return method.getReturnType();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+            return new IdMetadata(null, null, null, null, null);
         }
     }
 }
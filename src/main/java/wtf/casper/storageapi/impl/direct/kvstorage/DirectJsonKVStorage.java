@@ -1,5 +1,6 @@
 package wtf.casper.storageapi.impl.direct.kvstorage;
 
+import wtf.casper.storageapi.cache.CachePolicy;
 import wtf.casper.storageapi.impl.kvstorage.JsonKVStorage;
 import wtf.casper.storageapi.misc.ConstructableValue;
 
@@ -15,6 +16,11 @@ public class DirectJsonKVStorage<K, V> extends JsonKVStorage<K, V> implements Co
         this.function = function;
     }
 
+    public DirectJsonKVStorage(Class<K> keyClass, Class<V> valueClass, File file, Function<K, V> function, CachePolicy cachePolicy) {
+        this(keyClass, valueClass, file, function);
+        cachePolicy(cachePolicy);
+    }
+
     @Override
     public V constructValue(K key) {
         return function.apply(key);
@@ -1,6 +1,7 @@
 package wtf.casper.storageapi.impl.direct.kvstorage;
 
 import wtf.casper.storageapi.Credentials;
+import wtf.casper.storageapi.cache.CachePolicy;
 import wtf.casper.storageapi.impl.kvstorage.MariaDBKVStorage;
 import wtf.casper.storageapi.misc.ConstructableValue;
 
@@ -15,6 +16,11 @@ public class DirectMariaDBKVStorage<K, V> extends MariaDBKVStorage<K, V> impleme
         this.function = function;
     }
 
+    public DirectMariaDBKVStorage(Class<K> keyClass, Class<V> valueClass, Credentials credentials, Function<K, V> function, CachePolicy cachePolicy) {
+        this(keyClass, valueClass, credentials, function);
+        cachePolicy(cachePolicy);
+    }
+
 
     @Override
     public V constructValue(K key) {
@@ -1,6 +1,7 @@
 package wtf.casper.storageapi.impl.direct.kvstorage;
 
 import wtf.casper.storageapi.Credentials;
+import wtf.casper.storageapi.cache.CachePolicy;
 import wtf.casper.storageapi.impl.kvstorage.MongoKVStorage;
 import wtf.casper.storageapi.misc.ConstructableValue;
 
@@ -16,6 +17,11 @@ public class DirectMongoKVStorage<K, V> extends MongoKVStorage<K, V> implements
         this.function = function;
     }
 
+    public DirectMongoKVStorage(Class<K> keyClass, Class<V> valueClass, Credentials credentials, Function<K, V> function, CachePolicy cachePolicy) {
+        this(keyClass, valueClass, credentials, function);
+        cachePolicy(cachePolicy);
+    }
+
     @Override
     public V constructValue(K key) {
         return function.apply(key);
@@ -1,6 +1,7 @@
 package wtf.casper.storageapi.impl.direct.kvstorage;
 
 import wtf.casper.storageapi.Credentials;
+import wtf.casper.storageapi.cache.CachePolicy;
 import wtf.casper.storageapi.impl.kvstorage.SQLKVStorage;
 import wtf.casper.storageapi.misc.ConstructableValue;
 
@@ -15,6 +16,11 @@ public class DirectSQLKVStorage<K, V> extends SQLKVStorage<K, V> implements Cons
         this.function = function;
     }
 
+    public DirectSQLKVStorage(Class<K> keyClass, Class<V> valueClass, Credentials credentials, Function<K, V> function, CachePolicy cachePolicy) {
+        this(keyClass, valueClass, credentials, function);
+        cachePolicy(cachePolicy);
+    }
+
 
     @Override
     public V constructValue(K key) {
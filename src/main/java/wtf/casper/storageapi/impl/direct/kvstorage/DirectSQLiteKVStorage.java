@@ -1,5 +1,6 @@
 package wtf.casper.storageapi.impl.direct.kvstorage;
 
+import wtf.casper.storageapi.cache.CachePolicy;
 import wtf.casper.storageapi.impl.kvstorage.SQLiteKVStorage;
 import wtf.casper.storageapi.misc.ConstructableValue;
 
@@ -15,6 +16,11 @@ public class DirectSQLiteKVStorage<K, V> extends SQLiteKVStorage<K, V> implement
         this.function = function;
     }
 
+    public DirectSQLiteKVStorage(Class<K> keyClass, Class<V> valueClass, File file, String table, Function<K, V> function, CachePolicy cachePolicy) {
+        this(keyClass, valueClass, file, table, function);
+        cachePolicy(cachePolicy);
+    }
+
 
     @Override
     public V constructValue(K key) {
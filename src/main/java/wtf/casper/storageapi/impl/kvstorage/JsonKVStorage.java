@@ -2,28 +2,62 @@ package wtf.casper.storageapi.impl.kvstorage;
 
 
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import lombok.SneakyThrows;
+import lombok.extern.java.Log;
 import wtf.casper.storageapi.KVStorage;
 import wtf.casper.storageapi.cache.Cache;
+import wtf.casper.storageapi.cache.CacheSnapshot;
 import wtf.casper.storageapi.cache.CaffeineCache;
+import wtf.casper.storageapi.cache.DirtyTracker;
+import wtf.casper.storageapi.cache.HotKeys;
+import wtf.casper.storageapi.cache.SingleFlightLoader;
+import wtf.casper.storageapi.cache.WriteBehindQueue;
 import wtf.casper.storageapi.id.utils.IdUtils;
 import wtf.casper.storageapi.misc.ConstructableValue;
+import wtf.casper.storageapi.misc.Page;
+import wtf.casper.storageapi.serializer.Serializer;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
+import wtf.casper.storageapi.utils.StorageExecutor;
 
 import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+@Log
 public abstract class JsonKVStorage<K, V> implements KVStorage<K, V>, ConstructableValue<K, V> {
 
+    private static final int IO_PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors());
+
     private final File dataFolder;
     private final Class<K> keyClass;
     private final Class<V> valueClass;
-    private Cache<K, V> cache = new CaffeineCache<>(Caffeine.newBuilder().expireAfterWrite(15, TimeUnit.MINUTES).build());
+    private Cache<K, V> cache = new CaffeineCache<>(Caffeine.newBuilder().expireAfterWrite(15, TimeUnit.MINUTES).recordStats().build());
+    // sorted keys of the stored files, loaded on the first scan and kept up to date by every write afterward
+    private final NavigableSet<String> keyIndex = new ConcurrentSkipListSet<>();
+    private volatile boolean keyIndexLoaded = false;
+    private WriteBehindQueue<K, V> writeBehind;
+    private HotKeys<K> hotKeys;
+    private CacheSnapshot<K, V> snapshot;
+    private final SingleFlightLoader<K, V> loader = new SingleFlightLoader<>(this::cache);
+    private StorageExecutor executor = StorageAPIConstants.FILE_IO_POOL;
+    private final DirtyTracker<K> dirtyTracker = new DirtyTracker<>();
+    private Serializer<V> serializer;
 
     @SneakyThrows
     public JsonKVStorage(final File dataFolder, final Class<K> keyClass, final Class<V> valueClass) {
@@ -41,9 +75,116 @@ public abstract class JsonKVStorage<K, V> implements KVStorage<K, V>, Constructa
 
         this.dataFolder = dataFolder;
         this.valueClass = valueClass;
+        this.serializer = Serializer.gson(valueClass);
         this.keyClass = keyClass;
     }
 
+    @Override
+    public HotKeys<K> hotKeys() {
+        return hotKeys;
+    }
+
+    @Override
+    public CompletableFuture<Integer> hotKeys(File file, int limit, int parallelism) {
+        hotKeys = new HotKeys<>(file, keyClass, limit);
+        return preload(hotKeys.read(), parallelism, null);
+    }
+
+    @Override
+    public CacheSnapshot<K, V> snapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public int snapshot(File file, long maxAge, TimeUnit unit) {
+        snapshot = new CacheSnapshot<>(file, keyClass, valueClass, maxAge, unit);
+        return snapshot.restore(this);
+    }
+
+    @Override
+    public StorageExecutor executor() {
+        return executor;
+    }
+
+    @Override
+    public void executor(StorageExecutor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public Serializer<V> serializer() {
+        return serializer;
+    }
+
+    @Override
+    public void serializer(Serializer<V> serializer) {
+        serializer(serializer, false);
+    }
+
+    /**
+     * Binary serializers store values in {@code .bin} files instead of {@code .json} files. Files written by the old
+     * serializer would be ignored or unreadable afterwards, so they are either converted or the switch is refused.
+     *
+     * @param serializer the serializer to store values with.
+     * @param migrate    true to rewrite the stored files with the new serializer.
+     * @throws IllegalStateException if stored files can't be read by the new serializer and migrate is false.
+     */
+    @SneakyThrows
+    public void serializer(Serializer<V> serializer, boolean migrate) {
+        String from = extension();
+        String to = extension(serializer);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> directory = Files.newDirectoryStream(dataFolder.toPath(), "*" + from)) {
+            directory.forEach(files::add);
+        }
+
+        if (!migrate) {
+            if (!files.isEmpty() && !readableBy(serializer, files.get(0))) {
+                throw new IllegalStateException(dataFolder + " has " + from + " files the new serializer can't read, " +
+                        "use serializer(serializer, true) to convert them");
+            }
+        } else {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                V value = this.serializer.deserialize(Files.readAllBytes(file));
+                Files.write(dataFolder.toPath().resolve(name.substring(0, name.length() - from.length()) + to), serializer.serialize(value));
+                if (!from.equals(to)) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        this.serializer = serializer;
+        // hashes of the old serialized form would never match, and the index lists the old files
+        this.dirtyTracker.clear();
+        synchronized (keyIndex) {
+            keyIndex.clear();
+            keyIndexLoaded = false;
+        }
+    }
+
+    // files with the other extension are ignored after the switch, so they are never readable
+    private boolean readableBy(Serializer<V> serializer, Path file) throws IOException {
+        if (!extension(serializer).equals(extension())) {
+            return false;
+        }
+
+        try {
+            serializer.deserialize(Files.readAllBytes(file));
+            return true;
+        } catch (final RuntimeException e) {
+            return false;
+        }
+    }
+
+    private String extension() {
+        return extension(serializer);
+    }
+
+    private static String extension(Serializer<?> serializer) {
+        return serializer.text() ? ".json" : ".bin";
+    }
+
     @Override
     public Class<K> key() {
         return keyClass;
@@ -64,10 +205,43 @@ public abstract class JsonKVStorage<K, V> implements KVStorage<K, V>, Constructa
         this.cache = cache;
     }
 
+    @Override
+    public DirtyTracker<K> dirtyTracker() {
+        return dirtyTracker;
+    }
+
+    @Override
+    public SingleFlightLoader<K, V> loader() {
+        return loader;
+    }
+
+    @Override
+    public WriteBehindQueue<K, V> writeBehind() {
+        return writeBehind;
+    }
+
+    @Override
+    public void writeBehind(long interval, TimeUnit unit, int flushThreshold) {
+        if (this.writeBehind != null) {
+            this.writeBehind.close().join();
+        }
+        this.writeBehind = new WriteBehindQueue<>(interval, unit, flushThreshold, values -> CompletableFuture.runAsync(() -> {
+            for (V value : values) {
+                writeIfChanged((K) IdUtils.getId(valueClass, value), value);
+            }
+        }, executor()));
+    }
+
     @Override
     public CompletableFuture<Void> deleteAll() {
         return CompletableFuture.runAsync(() -> {
+            this.loader.invalidateAll();
             this.cache.invalidateAll();
+            this.keyIndex.clear();
+            this.dirtyTracker.clear();
+            if (this.writeBehind != null) {
+                this.writeBehind.clear();
+            }
 
             File[] files = dataFolder.listFiles();
             if (files == null) {
@@ -79,96 +253,264 @@ public abstract class JsonKVStorage<K, V> implements KVStorage<K, V>, Constructa
                     file.delete();
                 }
             }
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 
     @Override
     public CompletableFuture<V> get(K key) {
-        return CompletableFuture.supplyAsync(() -> {
+        if (writeBehind != null) {
+            V pending = writeBehind.pending(key);
+            if (pending != null) {
+                return CompletableFuture.completedFuture(pending);
+            }
+        }
+
+        return loader.get(key, this::load);
+    }
+
+    @Override
+    public CompletableFuture<V> load(K key) {
+        return CompletableFuture.supplyAsync(() -> read(key), executor());
+    }
+
+    @Override
+    public CompletableFuture<Map<K, V>> getAll(Collection<K> keys) {
+        Map<K, V> values = new ConcurrentHashMap<>();
+        List<K> misses = new ArrayList<>();
+        for (K key : keys) {
             V v = cache.getIfPresent(key);
+            if (v == null && writeBehind != null) {
+                v = writeBehind.pending(key);
+            }
+
             if (v != null) {
-                return v;
+                values.put(key, v);
+            } else if (!loader.isAbsent(key)) {
+                misses.add(key);
             }
+        }
 
-            try {
-                File file = new File(dataFolder, key + ".json");
+        if (misses.isEmpty()) {
+            return CompletableFuture.completedFuture(values);
+        }
 
-                if (!file.exists()) {
-                    return null;
+        // started before reading, so a save or remove meanwhile isn't overwritten by the older files
+        SingleFlightLoader<K, V>.BulkLoad bulkLoad = loader.bulkLoad();
+        // split the misses into at most IO_PARALLELISM chunks so a large request can't flood the pool
+        int chunkSize = (misses.size() + IO_PARALLELISM - 1) / IO_PARALLELISM;
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < misses.size(); i += chunkSize) {
+            List<K> chunk = misses.subList(i, Math.min(misses.size(), i + chunkSize));
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (K key : chunk) {
+                    V value = read(key);
+                    if (value != null) {
+                        values.put(key, bulkLoad.publish(key, value));
+                    }
                 }
+            }, executor()));
+        }
 
-                final Reader reader = new FileReader(file);
-                final V value = StorageAPIConstants.getGson().fromJson(reader, valueClass);
-                cache.put(key, value);
-                reader.close();
-                return value;
-            } catch (final Exception e) {
-                e.printStackTrace();
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((ignored, throwable) -> bulkLoad.close())
+                .thenApply(ignored -> values);
+    }
+
+    private V read(K key) {
+        try {
+            File file = new File(dataFolder, key + extension());
+            if (!file.exists()) {
                 return null;
             }
 
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            final byte[] data = Files.readAllBytes(file.toPath());
+            final V value = serializer.deserialize(data);
+            if (value != null) {
+                dirtyTracker.markClean(key, data);
+            }
+            return value;
+        } catch (final Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private V readFile(File file) {
+        try {
+            if (!file.exists()) {
+                return null;
+            }
+
+            return serializer.deserialize(Files.readAllBytes(file.toPath()));
+        } catch (final Exception e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     @Override
     public CompletableFuture<Void> save(V value) {
+        K key = (K) IdUtils.getId(valueClass, value);
+        loader.invalidate(key);
+        if (writeBehind != null) {
+            cache.put(key, value);
+            keyIndex.add(key.toString());
+            writeBehind.add(key, value);
+            return CompletableFuture.completedFuture(null);
+        }
+
         return CompletableFuture.runAsync(() -> {
-            cache.put((K) IdUtils.getId(valueClass, value), value);
+            cache.put(key, value);
+            keyIndex.add(key.toString());
+            writeIfChanged(key, value);
+        }, executor());
+    }
 
-            try {
-                File file = new File(dataFolder, IdUtils.getId(valueClass, value) + ".json");
-                if (!file.exists()) {
-                    file.createNewFile();
-                } else {
-                    file.delete();
-                    file.createNewFile();
-                }
+    @Override
+    public CompletableFuture<Void> saveAll(Collection<V> values) {
+        for (V value : values) {
+            loader.invalidate((K) IdUtils.getId(valueClass, value));
+        }
 
-                final Writer writer = new FileWriter(file);
-                StorageAPIConstants.getGson().toJson(value, writer);
-                writer.close();
-            } catch (final Exception e) {
-                e.printStackTrace();
+        if (writeBehind != null) {
+            for (V value : values) {
+                K key = (K) IdUtils.getId(valueClass, value);
+                cache.put(key, value);
+                keyIndex.add(key.toString());
+                writeBehind.add(key, value);
             }
+            return CompletableFuture.completedFuture(null);
+        }
 
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        // write on a single task instead of joining a save per value, which could starve a bounded executor
+        return CompletableFuture.runAsync(() -> {
+            for (V value : values) {
+                K key = (K) IdUtils.getId(valueClass, value);
+                cache.put(key, value);
+                keyIndex.add(key.toString());
+                writeIfChanged(key, value);
+            }
+        }, executor());
     }
 
     @Override
-    public CompletableFuture<Void> remove(V value) {
-        return CompletableFuture.runAsync(() -> {
-            cache.invalidate((K) IdUtils.getId(valueClass, value));
+    public CompletableFuture<Boolean> contains(K key) {
+        if (cache.getIfPresent(key) != null || (writeBehind != null && writeBehind.pending(key) != null)) {
+            return CompletableFuture.completedFuture(true);
+        }
 
-            final File file = new File(dataFolder, IdUtils.getId(valueClass, value) + ".json");
-            if (!file.exists()) {
-                return;
+        if (loader.isAbsent(key)) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        return CompletableFuture.supplyAsync(() -> new File(dataFolder, key + extension()).exists(), executor());
+    }
+
+    private void writeIfChanged(K key, V value) {
+        byte[] data = serializer.serialize(value);
+        if (!dirtyTracker.unchanged(key, data)) {
+            writeFile(key, data);
+        }
+    }
+
+    private void writeFile(K key, byte[] data) {
+        try {
+            Files.write(new File(dataFolder, key + extension()).toPath(), data);
+            dirtyTracker.markClean(key, data);
+        } catch (final IOException e) {
+            // rethrown so a write-behind flush keeps the value pending instead of dropping it
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> remove(V value) {
+        // a flush that already wrote the value has to finish before the file is deleted, or it would bring it back
+        CompletableFuture<Void> flushed = writeBehind == null ? CompletableFuture.completedFuture(null) : writeBehind.discard((K) IdUtils.getId(valueClass, value));
+        return flushed.thenRunAsync(() -> {
+            final K key = (K) IdUtils.getId(valueClass, value);
+            try {
+                Files.deleteIfExists(new File(dataFolder, key + extension()).toPath());
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                // after the delete, so a get running meanwhile can't cache the file again
+                loader.invalidate(key);
+                cache.invalidate(key);
+                keyIndex.remove(key.toString());
+                dirtyTracker.forget(key);
             }
+        }, executor());
+    }
 
-            file.delete();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+    @Override
+    public CompletableFuture<Void> removeAll(Collection<V> values) {
+        List<K> keys = new ArrayList<>();
+        for (V value : values) {
+            keys.add((K) IdUtils.getId(valueClass, value));
+        }
+        return removeKeys(keys);
     }
 
     @Override
-    public CompletableFuture<Void> write() {
-        return CompletableFuture.runAsync(() -> {
-            cache.asMap().forEach((key, value) -> {
+    public CompletableFuture<Void> removeKeys(Collection<K> keys) {
+        CompletableFuture<Void> flushed = writeBehind == null ? CompletableFuture.completedFuture(null) : writeBehind.discardAll(keys);
+        if (keys.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<K> remaining = new ArrayList<>(keys);
+        int chunkSize = (remaining.size() + IO_PARALLELISM - 1) / IO_PARALLELISM;
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < remaining.size(); i += chunkSize) {
+            List<K> chunk = remaining.subList(i, Math.min(remaining.size(), i + chunkSize));
+            futures.add(flushed.thenRunAsync(() -> {
                 try {
-                    File file = new File(dataFolder, key + ".json");
-                    if (!file.exists()) {
-                        file.createNewFile();
-                    } else {
-                        file.delete();
-                        file.createNewFile();
+                    for (K key : chunk) {
+                        Files.deleteIfExists(new File(dataFolder, key + extension()).toPath());
                     }
-
-                    final Writer writer = new FileWriter(file);
-                    StorageAPIConstants.getGson().toJson(value, writer);
-                    writer.close();
-                } catch (final Exception e) {
-                    e.printStackTrace();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    // after the delete, so a get running meanwhile can't cache the files again
+                    loader.invalidateAll(chunk);
+                    cache.invalidateAll(chunk);
+                    for (K key : chunk) {
+                        keyIndex.remove(key.toString());
+                    }
+                    dirtyTracker.forgetAll(chunk);
                 }
+            }, executor()));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    @Override
+    public CompletableFuture<Void> write() {
+        if (writeBehind != null) {
+            return writeBehind.flush();
+        }
+
+        return CompletableFuture.runAsync(() -> {
+            Map<K, V> values = new HashMap<>(cache.asMap());
+            Map<K, byte[]> dirty = dirtyTracker.dirty(values, serializer::serialize);
+            dirty.forEach((key, data) -> {
+                keyIndex.add(key.toString());
+                writeFile(key, data);
             });
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            log.fine("Wrote " + dirty.size() + " changed values to " + dataFolder.getName() + ", skipped " + (values.size() - dirty.size()) + " unchanged values");
+        }, executor());
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        if (hotKeys != null) {
+            hotKeys.write(cache);
+        }
+        if (snapshot != null) {
+            snapshot.write(cache);
+        }
+        return writeBehind == null ? CompletableFuture.completedFuture(null) : writeBehind.close();
     }
 
     @Override
@@ -182,22 +524,86 @@ public abstract class JsonKVStorage<K, V> implements KVStorage<K, V>, Constructa
             }
 
             for (File file : files) {
-                if (!file.getName().endsWith(".json")) {
+                if (!file.getName().endsWith(extension())) {
                     continue;
                 }
 
-                try {
-                    final Reader reader = new FileReader(file);
-                    final V value = StorageAPIConstants.getGson().fromJson(reader, valueClass);
+                final V value = readFile(file);
+                if (value != null) {
                     cache.put((K) IdUtils.getId(valueClass, value), value);
-                    reader.close();
-                } catch (final Exception e) {
-                    e.printStackTrace();
                 }
             }
 
             return cache.asMap().values();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
+    }
+
+    @Override
+    public Stream<V> stream() {
+        final DirectoryStream<Path> directory;
+        try {
+            directory = Files.newDirectoryStream(dataFolder.toPath(), "*" + extension());
+        } catch (final IOException e) {
+            e.printStackTrace();
+            return Stream.empty();
+        }
+
+        return StreamSupport.stream(directory.spliterator(), false)
+                .onClose(() -> {
+                    try {
+                        directory.close();
+                    } catch (final IOException e) {
+                        e.printStackTrace();
+                    }
+                })
+                .map(path -> readFile(path.toFile()))
+                .filter(Objects::nonNull);
+    }
+
+    @Override
+    public CompletableFuture<Page<K, V>> scan(K afterKey, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            loadKeyIndex();
+            NavigableSet<String> keys = afterKey == null ? keyIndex : keyIndex.tailSet(afterKey.toString(), false);
+            List<V> values = new ArrayList<>();
+
+            for (String key : keys) {
+                if (values.size() >= limit) {
+                    break;
+                }
+
+                V value = readFile(new File(dataFolder, key + extension()));
+                if (value != null) {
+                    values.add(value);
+                }
+            }
+
+            return Page.of(values, limit);
+        }, executor());
+    }
+
+    private void loadKeyIndex() {
+        if (keyIndexLoaded) {
+            return;
+        }
+
+        synchronized (keyIndex) {
+            if (keyIndexLoaded) {
+                return;
+            }
+
+            try (DirectoryStream<Path> directory = Files.newDirectoryStream(dataFolder.toPath(), "*" + extension())) {
+                for (Path path : directory) {
+                    String name = path.getFileName().toString();
+                    keyIndex.add(name.substring(0, name.length() - extension().length()));
+                }
+            } catch (final IOException e) {
+                e.printStackTrace();
+                return;
+            }
+
+            keyIndexLoaded = true;
+        }
     }
 
     @Override
@@ -210,33 +616,32 @@ public abstract class JsonKVStorage<K, V> implements KVStorage<K, V>, Constructa
 
             cache().invalidateAll();
             for (File file : files) {
-                if (!file.getName().endsWith(".json")) {
+                if (!file.getName().endsWith(extension())) {
                     continue;
                 }
 
                 try {
-                    final Reader reader = new FileReader(file);
-                    final JsonObject value = StorageAPIConstants.getGson().fromJson(reader, JsonObject.class);
-                    reader.close();
-
-                    if (value == null) {
+                    final JsonElement tree = serializer.readTree(Files.readAllBytes(file.toPath()));
+                    if (tree == null || !tree.isJsonObject()) {
                         continue;
                     }
 
+                    final JsonObject value = tree.getAsJsonObject();
+
                     if (value.has(path)) {
                         value.add(newPath, value.get(path));
                         value.remove(path);
                     }
 
-                    final Writer writer = new FileWriter(file);
-                    StorageAPIConstants.getGson().toJson(value, writer);
-                    writer.close();
+                    Files.write(file.toPath(), serializer.writeTree(value));
                 } catch (final Exception e) {
                     e.printStackTrace();
                 }
             }
+            loader.invalidateAll();
             cache().invalidateAll();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            dirtyTracker.clear();
+        }, executor());
     }
 
     @Override
@@ -249,19 +654,18 @@ public abstract class JsonKVStorage<K, V> implements KVStorage<K, V>, Constructa
 
             cache().invalidateAll();
             for (File file : files) {
-                if (!file.getName().endsWith(".json")) {
+                if (!file.getName().endsWith(extension())) {
                     continue;
                 }
 
                 try {
-                    final Reader reader = new FileReader(file);
-                    final JsonObject value = StorageAPIConstants.getGson().fromJson(reader, JsonObject.class);
-                    reader.close();
-
-                    if (value == null) {
+                    final JsonElement tree = serializer.readTree(Files.readAllBytes(file.toPath()));
+                    if (tree == null || !tree.isJsonObject()) {
                         continue;
                     }
 
+                    final JsonObject value = tree.getAsJsonObject();
+
                     for (Map.Entry<String, String> entry : pathToNewPath.entrySet()) {
                         if (value.has(entry.getKey())) {
                             value.add(entry.getValue(), value.get(entry.getKey()));
@@ -269,14 +673,14 @@ public abstract class JsonKVStorage<K, V> implements KVStorage<K, V>, Constructa
                         }
                     }
 
-                    final Writer writer = new FileWriter(file);
-                    StorageAPIConstants.getGson().toJson(value, writer);
-                    writer.close();
+                    Files.write(file.toPath(), serializer.writeTree(value));
                 } catch (final Exception e) {
                     e.printStackTrace();
                 }
             }
+            loader.invalidateAll();
             cache().invalidateAll();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            dirtyTracker.clear();
+        }, executor());
     }
 }
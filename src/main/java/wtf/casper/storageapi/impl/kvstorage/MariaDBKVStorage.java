@@ -7,23 +7,33 @@ import lombok.extern.java.Log;
 import wtf.casper.storageapi.Credentials;
 import wtf.casper.storageapi.KVStorage;
 import wtf.casper.storageapi.cache.Cache;
+import wtf.casper.storageapi.cache.CacheSnapshot;
 import wtf.casper.storageapi.cache.CaffeineCache;
+import wtf.casper.storageapi.cache.DirtyTracker;
+import wtf.casper.storageapi.cache.HotKeys;
+import wtf.casper.storageapi.cache.SingleFlightLoader;
+import wtf.casper.storageapi.cache.WriteBehindQueue;
 import wtf.casper.storageapi.id.exceptions.IdNotFoundException;
 import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.misc.ChangeLog;
 import wtf.casper.storageapi.misc.ConstructableValue;
 import wtf.casper.storageapi.misc.ISQLKVStorage;
+import wtf.casper.storageapi.serializer.Serializer;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
+import wtf.casper.storageapi.utils.StorageExecutor;
 
+import java.io.File;
 import java.lang.reflect.Field;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Log
 public abstract class MariaDBKVStorage<K, V> implements ConstructableValue<K, V>, KVStorage<K, V>, ISQLKVStorage<K, V> {
@@ -32,8 +42,21 @@ public abstract class MariaDBKVStorage<K, V> implements ConstructableValue<K, V>
     protected final Class<V> valueClass;
     private final HikariDataSource ds;
     private final String table;
+    private int batchSize = StorageAPIConstants.DEFAULT_BATCH_SIZE;
+    private boolean numericId;
+    private StorageExecutor executor;
+    // created by this storage, so it is shut down when the storage is closed or the executor is replaced
+    private StorageExecutor ownedExecutor;
+    private Serializer<V> serializer;
+    private WriteBehindQueue<K, V> writeBehind;
+    private HotKeys<K> hotKeys;
+    private CacheSnapshot<K, V> snapshot;
+    private ChangeLog<K, V> changeLog;
+    private final DirtyTracker<K> dirtyTracker = new DirtyTracker<>();
+    private final SingleFlightLoader<K, V> loader = new SingleFlightLoader<>(this::cache);
     private Cache<K, V> cache = new CaffeineCache<>(Caffeine.newBuilder()
             .expireAfterWrite(10, TimeUnit.MINUTES)
+            .recordStats()
             .build());
 
     public MariaDBKVStorage(final Class<K> keyClass, final Class<V> valueClass, final String table, final Credentials credentials) {
@@ -49,6 +72,7 @@ public abstract class MariaDBKVStorage<K, V> implements ConstructableValue<K, V>
     public MariaDBKVStorage(final Class<K> keyClass, final Class<V> valueClass, final String table, final String host, final int port, final String database, final String username, final String password) {
         this.keyClass = keyClass;
         this.valueClass = valueClass;
+        this.serializer = Serializer.gson(valueClass);
         this.table = table;
         this.ds = new HikariDataSource();
         this.ds.setMaximumPoolSize(20);
@@ -57,6 +81,8 @@ public abstract class MariaDBKVStorage<K, V> implements ConstructableValue<K, V>
         this.ds.addDataSourceProperty("user", username);
         this.ds.addDataSourceProperty("password", password);
         this.ds.setAutoCommit(true);
+        this.executor = StorageExecutor.forDataSource(table + "-DB-Thread", this.ds);
+        this.ownedExecutor = this.executor;
         createTable();
     }
 
@@ -75,6 +101,96 @@ public abstract class MariaDBKVStorage<K, V> implements ConstructableValue<K, V>
         return table;
     }
 
+    @Override
+    public int batchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public void batchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean numericId() {
+        return numericId;
+    }
+
+    @Override
+    public void numericId(boolean numericId) {
+        this.numericId = numericId;
+    }
+
+    @Override
+    public ChangeLog<K, V> changeLog() {
+        return this.changeLog;
+    }
+
+    @Override
+    public void changeLog(long pollInterval, TimeUnit unit) {
+        if (this.changeLog != null) {
+            this.changeLog.close();
+        }
+        this.changeLog = new ChangeLog<>(this, pollInterval, unit);
+    }
+
+    @Override
+    public HotKeys<K> hotKeys() {
+        return this.hotKeys;
+    }
+
+    @Override
+    public CompletableFuture<Integer> hotKeys(File file, int limit, int parallelism) {
+        this.hotKeys = new HotKeys<>(file, keyClass, limit);
+        return preload(this.hotKeys.read(), parallelism, null);
+    }
+
+    @Override
+    public CacheSnapshot<K, V> snapshot() {
+        return this.snapshot;
+    }
+
+    @Override
+    public int snapshot(File file, long maxAge, TimeUnit unit) {
+        this.snapshot = new CacheSnapshot<>(file, keyClass, valueClass, maxAge, unit);
+        return this.snapshot.restore(this);
+    }
+
+    @Override
+    public StorageExecutor executor() {
+        return executor;
+    }
+
+    @Override
+    public void executor(StorageExecutor executor) {
+        if (this.ownedExecutor != null && this.ownedExecutor != executor) {
+            // tasks that were already submitted still run
+            this.ownedExecutor.shutdown();
+            this.ownedExecutor = null;
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public Serializer<V> serializer() {
+        return serializer;
+    }
+
+    @Override
+    public void serializer(Serializer<V> serializer) {
+        serializer(serializer, false);
+    }
+
+    @Override
+    public void serializer(Serializer<V> serializer, boolean migrate) {
+        List<V> values = serializerSwitchValues(serializer, migrate);
+        boolean text = this.serializer.text();
+        this.serializer = serializer;
+        // hashes of the old serialized form would never match
+        this.dirtyTracker.clear();
+        finishSerializerSwitch(serializer.text() != text, values);
+    }
+
     @Override
     public Class<K> key() {
         return keyClass;
@@ -95,84 +211,192 @@ public abstract class MariaDBKVStorage<K, V> implements ConstructableValue<K, V>
         this.cache = cache;
     }
 
+    @Override
+    public DirtyTracker<K> dirtyTracker() {
+        return this.dirtyTracker;
+    }
+
+    @Override
+    public SingleFlightLoader<K, V> loader() {
+        return this.loader;
+    }
+
+    @Override
+    public WriteBehindQueue<K, V> writeBehind() {
+        return this.writeBehind;
+    }
+
+    @Override
+    public void writeBehind(long interval, TimeUnit unit, int flushThreshold) {
+        if (this.writeBehind != null) {
+            this.writeBehind.close().join();
+        }
+        this.writeBehind = new WriteBehindQueue<>(interval, unit, flushThreshold, this::saveBatch);
+    }
+
     @Override
     public CompletableFuture<Void> deleteAll() {
         return CompletableFuture.runAsync(() -> {
+            if (this.writeBehind != null) {
+                this.writeBehind.clear();
+            }
+            this.dirtyTracker.clear();
             execute("DELETE FROM " + this.table + ";");
+            this.loader.invalidateAll();
             this.cache.invalidateAll();
+            if (this.changeLog != null) {
+                this.changeLog.recordAll();
+            }
             createTable();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> remove(final V value) {
-        return CompletableFuture.runAsync(() -> {
+        // a flush that already sent the value has to land before the delete, or it would bring the row back
+        CompletableFuture<Void> flushed = this.writeBehind == null ? CompletableFuture.completedFuture(null)
+                : this.writeBehind.discard((K) IdUtils.getId(this.valueClass, value));
+        return flushed.thenRunAsync(() -> {
             Field idField;
             try {
                 idField = IdUtils.getIdField(valueClass);
             } catch (IdNotFoundException e) {
                 throw new RuntimeException(e);
             }
-            this.cache.invalidate((K) IdUtils.getId(this.valueClass, value));
+            K key = (K) IdUtils.getId(this.valueClass, value);
             String field = idField.getName();
-            this.execute("DELETE FROM " + this.table + " WHERE `" + field + "` = ?;", statement -> {
-                statement.setString(1, IdUtils.getId(this.valueClass, value).toString());
-            });
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            try {
+                if (!this.executeUpdate("DELETE FROM " + this.table + " WHERE `" + field + "` = ?;", statement -> {
+                    setId(statement, 1, key);
+                })) {
+                    throw new RuntimeException("Error while removing " + key + " from " + this.table);
+                }
+            } finally {
+                // after the delete, so a get running meanwhile can't cache the row again
+                this.loader.invalidate(key);
+                this.cache.invalidate(key);
+                this.dirtyTracker.forget(key);
+            }
+            if (this.changeLog != null) {
+                this.changeLog.record(List.of(key));
+            }
+        }, executor());
+    }
+
+    @Override
+    public CompletableFuture<V> get(K key) {
+        if (this.writeBehind != null) {
+            V pending = this.writeBehind.pending(key);
+            if (pending != null) {
+                return CompletableFuture.completedFuture(pending);
+            }
+        }
+        return this.loader.get(key, this::load);
+    }
+
+    @Override
+    public CompletableFuture<V> load(K key) {
+        return ISQLKVStorage.super.get(key);
+    }
+
+    @Override
+    public CompletableFuture<Void> save(V value) {
+        K key = (K) IdUtils.getId(this.valueClass, value);
+        this.cache.put(key, value);
+        this.loader.invalidate(key);
+        if (this.writeBehind == null) {
+            return ISQLKVStorage.super.save(value);
+        }
+
+        this.writeBehind.add(key, value);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAll(Collection<V> values) {
+        for (V value : values) {
+            K key = (K) IdUtils.getId(this.valueClass, value);
+            this.cache.put(key, value);
+            this.loader.invalidate(key);
+            if (this.writeBehind != null) {
+                this.writeBehind.add(key, value);
+            }
+        }
+
+        if (this.writeBehind == null) {
+            return ISQLKVStorage.super.saveAll(values);
+        }
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
-    @SneakyThrows
     public CompletableFuture<Void> write() {
+        if (this.writeBehind != null) {
+            return this.writeBehind.flush();
+        }
+
         return CompletableFuture.runAsync(() -> {
-            this.saveAll(this.cache.asMap().values());
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            Map<K, V> values = new HashMap<>(this.cache.asMap());
+            Map<K, Object> dirty = this.dirtyTracker.dirty(values, this::serialize);
+            int written = executeBatch(dirty);
+            log.fine("Wrote " + written + " changed values to " + this.table + ", skipped " + (values.size() - dirty.size()) + " unchanged values");
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> close() {
-        return CompletableFuture.runAsync(() -> {
+        if (this.hotKeys != null) {
+            this.hotKeys.write(this.cache);
+        }
+        if (this.snapshot != null) {
+            this.snapshot.write(this.cache);
+        }
+        if (this.changeLog != null) {
+            this.changeLog.close();
+        }
+        CompletableFuture<Void> flush = this.writeBehind == null ? CompletableFuture.completedFuture(null) : this.writeBehind.close();
+        return flush.thenRunAsync(() -> {
             try {
                 this.ds.getConnection().close();
             } catch (final SQLException e) {
                 e.printStackTrace();
             }
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor()).thenRun(() -> {
+            if (this.ownedExecutor != null) {
+                this.ownedExecutor.shutdown();
+            }
+        });
     }
 
     @Override
     public CompletableFuture<Collection<V>> allValues() {
         return CompletableFuture.supplyAsync(() -> {
-            final List<V> values = new ArrayList<>();
-            ResultSet set = query("SELECT * FROM " + this.table, statement -> {
-            }).join();
-
-            try {
-                while (set.next()) {
-                    values.add(StorageAPIConstants.getGson().fromJson(set.getString("data"), this.valueClass));
-                }
-                set.close();
-            } catch (final SQLException e) {
-                e.printStackTrace();
+            try (Stream<V> stream = stream()) {
+                return stream.collect(Collectors.toList());
             }
-
-            return values;
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> renameField(String path, String newPath) {
+        requireTextData();
         return CompletableFuture.runAsync(() -> {
             cache().invalidateAll();
             this.execute("UPDATE " + this.table + " SET data = JSON_SET(data, '$." + newPath + "', JSON_EXTRACT(data, '$." + path + "'))," +
                     " data = JSON_REMOVE(data, '$." + path + "')", statement -> {
             });
+            this.loader.invalidateAll();
             cache().invalidateAll();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            this.dirtyTracker.clear();
+            if (this.changeLog != null) {
+                this.changeLog.recordAll();
+            }
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> renameFields(Map<String, String> pathToNewPath) {
+        requireTextData();
         return CompletableFuture.runAsync(() -> {
             cache().invalidateAll();
             pathToNewPath.forEach((path, newPath) -> {
@@ -180,7 +404,12 @@ public abstract class MariaDBKVStorage<K, V> implements ConstructableValue<K, V>
                         " data = JSON_REMOVE(data, '$." + path + "')", statement -> {
                 });
             });
+            this.loader.invalidateAll();
             cache().invalidateAll();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            this.dirtyTracker.clear();
+            if (this.changeLog != null) {
+                this.changeLog.recordAll();
+            }
+        }, executor());
     }
 }
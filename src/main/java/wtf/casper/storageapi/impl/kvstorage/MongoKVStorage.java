@@ -3,26 +3,46 @@ package wtf.casper.storageapi.impl.kvstorage;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
 import lombok.Getter;
 import lombok.extern.java.Log;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.conversions.Bson;
 import wtf.casper.storageapi.Credentials;
 import wtf.casper.storageapi.KVStorage;
 import wtf.casper.storageapi.cache.Cache;
+import wtf.casper.storageapi.cache.CacheSnapshot;
 import wtf.casper.storageapi.cache.CaffeineCache;
+import wtf.casper.storageapi.cache.DirtyTracker;
+import wtf.casper.storageapi.cache.HotKeys;
+import wtf.casper.storageapi.cache.SingleFlightLoader;
+import wtf.casper.storageapi.cache.WriteBehindQueue;
 import wtf.casper.storageapi.id.utils.IdUtils;
 import wtf.casper.storageapi.misc.ConstructableValue;
 import wtf.casper.storageapi.misc.IMongoStorage;
+import wtf.casper.storageapi.misc.MongoChangeStream;
 import wtf.casper.storageapi.misc.MongoProvider;
+import wtf.casper.storageapi.misc.Page;
+import wtf.casper.storageapi.serializer.BsonSerializer;
+import wtf.casper.storageapi.serializer.Serializer;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
+import wtf.casper.storageapi.utils.StorageExecutor;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.io.File;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.concurrent.TimeUnit;
 
 @Log
@@ -34,8 +54,17 @@ public class MongoKVStorage<K, V> implements KVStorage<K, V>, ConstructableValue
     @Getter
     private final MongoCollection<Document> collection;
     private final ReplaceOptions replaceOptions = new ReplaceOptions().upsert(true);
+    private final BulkWriteOptions bulkWriteOptions = new BulkWriteOptions().ordered(false);
 
-    private Cache<K, V> cache = new CaffeineCache<>(Caffeine.newBuilder().expireAfterWrite(10, TimeUnit.MINUTES).build());
+    private Cache<K, V> cache = new CaffeineCache<>(Caffeine.newBuilder().expireAfterWrite(10, TimeUnit.MINUTES).recordStats().build());
+    private WriteBehindQueue<K, V> writeBehind;
+    private HotKeys<K> hotKeys;
+    private CacheSnapshot<K, V> snapshot;
+    private final SingleFlightLoader<K, V> loader = new SingleFlightLoader<>(this::cache);
+    private final DirtyTracker<K> dirtyTracker = new DirtyTracker<>();
+    private StorageExecutor executor = StorageAPIConstants.DB_EXECUTOR;
+    private MongoChangeStream<K, V> changeStream;
+    private volatile Direct<V> direct;
 
     public MongoKVStorage(final Class<K> keyClass, final Class<V> valueClass, final Credentials credentials) {
         this(credentials.getUri(), credentials.getDatabase(), credentials.getCollection(), keyClass, valueClass);
@@ -65,11 +94,136 @@ public class MongoKVStorage<K, V> implements KVStorage<K, V>, ConstructableValue
         this.cache = cache;
     }
 
+    @Override
+    public SingleFlightLoader<K, V> loader() {
+        return loader;
+    }
+
+    @Override
+    public DirtyTracker<K> dirtyTracker() {
+        return dirtyTracker;
+    }
+
+    @Override
+    public WriteBehindQueue<K, V> writeBehind() {
+        return writeBehind;
+    }
+
+    @Override
+    public void writeBehind(long interval, TimeUnit unit, int flushThreshold) {
+        if (this.writeBehind != null) {
+            this.writeBehind.close().join();
+        }
+        this.writeBehind = new WriteBehindQueue<>(interval, unit, flushThreshold,
+                values -> CompletableFuture.runAsync(() -> writeDocuments(values), executor()));
+    }
+
+    /**
+     * @return the change stream keeping the cache coherent with other writers, or null if disabled.
+     */
+    public MongoChangeStream<K, V> changeStream() {
+        return changeStream;
+    }
+
+    /**
+     * Tails a change stream on the collection to refresh or invalidate cached values changed by other writers.
+     * Requires mongo to run as a replica set.
+     *
+     * @param resumeToken a token from {@link MongoChangeStream#getResumeToken()} to continue from, or null to start from now.
+     */
+    public void changeStream(BsonDocument resumeToken) {
+        if (this.changeStream != null) {
+            this.changeStream.close();
+        }
+        this.changeStream = new MongoChangeStream<>(this, collection, resumeToken, this::decode);
+    }
+
+    @Override
+    public HotKeys<K> hotKeys() {
+        return hotKeys;
+    }
+
+    @Override
+    public CompletableFuture<Integer> hotKeys(File file, int limit, int parallelism) {
+        hotKeys = new HotKeys<>(file, keyClass, limit);
+        return preload(hotKeys.read(), parallelism, null);
+    }
+
+    @Override
+    public CacheSnapshot<K, V> snapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public int snapshot(File file, long maxAge, TimeUnit unit) {
+        snapshot = new CacheSnapshot<>(file, keyClass, valueClass, maxAge, unit);
+        return snapshot.restore(this);
+    }
+
+    @Override
+    public StorageExecutor executor() {
+        return executor;
+    }
+
+    @Override
+    public void executor(StorageExecutor executor) {
+        this.executor = executor;
+    }
+
     @Override
     public Class<V> value() {
         return valueClass;
     }
 
+    @Override
+    public Serializer<V> serializer() {
+        Direct<V> direct = this.direct;
+        return direct != null ? direct.codec() : KVStorage.super.serializer();
+    }
+
+    /**
+     * @return true if values are encoded straight to bson, see {@link #directCodec(boolean)}.
+     */
+    public boolean directCodec() {
+        return direct != null;
+    }
+
+    /**
+     * Encodes values straight to bson and decodes them from a typed collection, instead of converting them to json
+     * and parsing that into a document. Documents look the same either way, so this can be switched on an existing collection.
+     */
+    public void directCodec(boolean enabled) {
+        if (enabled) {
+            BsonSerializer<V> codec = new BsonSerializer<>(valueClass, value -> convertUUIDtoString(IdUtils.getId(valueClass, value)));
+            this.direct = new Direct<>(
+                    codec,
+                    collection.withDocumentClass(valueClass)
+                            .withCodecRegistry(CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(codec), collection.getCodecRegistry())),
+                    collection.withDocumentClass(RawBsonDocument.class)
+            );
+        } else {
+            this.direct = null;
+        }
+        // hashes of the old serialized form would never match
+        dirtyTracker.clear();
+    }
+
+    private V decode(Document document) {
+        Direct<V> direct = this.direct;
+        if (direct != null) {
+            return direct.codec().decode(document.toBsonDocument());
+        }
+        return StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), valueClass);
+    }
+
+    private MongoIterable<V> find(Bson filter, Bson sort, int limit) {
+        Direct<V> direct = this.direct;
+        if (direct != null) {
+            return direct.values().find(filter).sort(sort).limit(limit).batchSize(StorageAPIConstants.DEFAULT_BATCH_SIZE);
+        }
+        return getCollection().find(filter).sort(sort).limit(limit).batchSize(StorageAPIConstants.DEFAULT_BATCH_SIZE).map(this::decode);
+    }
+
     @Override
     public Class<K> key() {
         return keyClass;
@@ -78,99 +232,271 @@ public class MongoKVStorage<K, V> implements KVStorage<K, V>, ConstructableValue
     @Override
     public CompletableFuture<Void> deleteAll() {
         return CompletableFuture.runAsync(() -> {
+            if (writeBehind != null) {
+                writeBehind.clear();
+            }
+            loader.invalidateAll();
+            cache.invalidateAll();
+            dirtyTracker.clear();
             getCollection().deleteMany(new Document());
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 
     @Override
     public CompletableFuture<V> get(K key) {
+        if (writeBehind != null) {
+            V pending = writeBehind.pending(key);
+            if (pending != null) {
+                return CompletableFuture.completedFuture(pending);
+            }
+        }
+
+        return loader.get(key, this::load);
+    }
+
+    @Override
+    public CompletableFuture<V> load(K key) {
         return CompletableFuture.supplyAsync(() -> {
-            if (cache.getIfPresent(key) != null) {
-                return cache.getIfPresent(key);
+            return find(new Document("_id", convertUUIDtoString(key)), null, 1).first();
+        }, executor());
+    }
+
+    @Override
+    public CompletableFuture<Map<K, V>> getAll(Collection<K> keys) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<K, V> values = new HashMap<>();
+            List<Object> misses = new ArrayList<>();
+            for (K key : keys) {
+                V cached = cache.getIfPresent(key);
+                if (cached == null && writeBehind != null) {
+                    cached = writeBehind.pending(key);
+                }
+
+                if (cached != null) {
+                    values.put(key, cached);
+                } else if (!loader.isAbsent(key)) {
+                    misses.add(convertUUIDtoString(key));
+                }
             }
 
-            Document filter = new Document("_id", convertUUIDtoString(key));
-            Document document = getCollection().find(filter).first();
+            if (misses.isEmpty()) {
+                return values;
+            }
 
-            if (document == null) {
-                return null;
+            // started before reading, so a save or remove meanwhile isn't overwritten by the older documents
+            try (SingleFlightLoader<K, V>.BulkLoad bulkLoad = loader.bulkLoad()) {
+                for (V obj : find(Filters.in("_id", misses), null, 0)) {
+                    K key = (K) IdUtils.getId(valueClass, obj);
+                    values.put(key, bulkLoad.publish(key, obj));
+                }
             }
 
-            V obj = StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), valueClass);
-            cache.asMap().putIfAbsent(key, obj);
-            return obj;
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            return values;
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> save(V value) {
+        K key = (K) IdUtils.getId(valueClass, value);
+        cache.put(key, value);
+        loader.invalidate(key);
+        if (writeBehind != null) {
+            writeBehind.add(key, value);
+            return CompletableFuture.completedFuture(null);
+        }
+
         return CompletableFuture.runAsync(() -> {
-            K key = (K) IdUtils.getId(valueClass, value);
-            cache.asMap().putIfAbsent(key, value);
-            Document document = Document.parse(StorageAPIConstants.getGson().toJson(value));
             Object object = convertUUIDtoString(key);
+            Direct<V> direct = this.direct;
+            if (direct != null) {
+                byte[] bson = direct.codec().serialize(value);
+                if (dirtyTracker.unchanged(key, bson)) {
+                    return;
+                }
+
+                direct.documents().replaceOne(new Document("_id", object), new RawBsonDocument(bson), replaceOptions);
+                dirtyTracker.markClean(key, bson);
+                return;
+            }
+
+            String json = StorageAPIConstants.getGson().toJson(value);
+            if (dirtyTracker.unchanged(key, json)) {
+                return;
+            }
+
+            Document document = Document.parse(json);
             document.put("_id", object);
             getCollection().replaceOne(
                     new Document("_id", object),
                     document,
                     replaceOptions
             );
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            dirtyTracker.markClean(key, json);
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> saveAll(Collection<V> values) {
-        return CompletableFuture.runAsync(() -> {
-            List<Document> documents = new ArrayList<>();
-            for (V value : values) {
-                K key = (K) IdUtils.getId(valueClass, value);
-                cache.asMap().putIfAbsent(key, value);
-                Document document = Document.parse(StorageAPIConstants.getGson().toJson(value));
-                document.put("_id", convertUUIDtoString(key));
-                documents.add(document);
+        for (V value : values) {
+            K key = (K) IdUtils.getId(valueClass, value);
+            cache.put(key, value);
+            loader.invalidate(key);
+            if (writeBehind != null) {
+                writeBehind.add(key, value);
+            }
+        }
+
+        if (writeBehind != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return CompletableFuture.runAsync(() -> writeDocuments(values), executor());
+    }
+
+    private void writeDocuments(Collection<V> values) {
+        Direct<V> direct = this.direct;
+        if (direct != null) {
+            writeRawDocuments(direct, values);
+            return;
+        }
+
+        Map<K, String> written = new HashMap<>();
+        List<ReplaceOneModel<Document>> models = new ArrayList<>();
+        for (V value : values) {
+            K key = (K) IdUtils.getId(valueClass, value);
+            String json = StorageAPIConstants.getGson().toJson(value);
+            if (dirtyTracker.unchanged(key, json)) {
+                continue;
             }
-            getCollection().insertMany(documents);
-        }, StorageAPIConstants.DB_THREAD_POOL);
+
+            Object id = convertUUIDtoString(key);
+            Document document = Document.parse(json);
+            document.put("_id", id);
+            models.add(new ReplaceOneModel<>(new Document("_id", id), document, replaceOptions));
+            written.put(key, json);
+        }
+
+        if (models.isEmpty()) {
+            return;
+        }
+
+        getCollection().bulkWrite(models, bulkWriteOptions);
+        written.forEach(dirtyTracker::markClean);
+    }
+
+    private void writeRawDocuments(Direct<V> direct, Collection<V> values) {
+        Map<K, byte[]> written = new HashMap<>();
+        List<ReplaceOneModel<RawBsonDocument>> models = new ArrayList<>();
+        for (V value : values) {
+            K key = (K) IdUtils.getId(valueClass, value);
+            byte[] bson = direct.codec().serialize(value);
+            if (dirtyTracker.unchanged(key, bson)) {
+                continue;
+            }
+
+            models.add(new ReplaceOneModel<>(new Document("_id", convertUUIDtoString(key)), new RawBsonDocument(bson), replaceOptions));
+            written.put(key, bson);
+        }
+
+        if (models.isEmpty()) {
+            return;
+        }
+
+        direct.documents().bulkWrite(models, bulkWriteOptions);
+        written.forEach(dirtyTracker::markClean);
     }
 
     @Override
     public CompletableFuture<Void> remove(V key) {
-        return CompletableFuture.runAsync(() -> {
+        K id = (K) IdUtils.getId(valueClass, key);
+        // a flush that already sent the value has to land before the delete, or it would bring the document back
+        CompletableFuture<Void> flushed = writeBehind == null ? CompletableFuture.completedFuture(null) : writeBehind.discard(id);
+        return flushed.thenRunAsync(() -> {
             try {
-                K id = (K) IdUtils.getId(valueClass, key);
-                cache.invalidate(id);
                 getCollection().deleteMany(new Document("_id", convertUUIDtoString(id)));
-            } catch (Exception e) {
-                e.printStackTrace();
+            } finally {
+                // after the delete, so a get running meanwhile can't cache the document again
+                loader.invalidate(id);
+                cache.invalidate(id);
+                dirtyTracker.forget(id);
             }
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAll(Collection<V> values) {
+        List<K> keys = new ArrayList<>();
+        for (V value : values) {
+            keys.add((K) IdUtils.getId(valueClass, value));
+        }
+        return removeKeys(keys);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeKeys(Collection<K> keys) {
+        CompletableFuture<Void> flushed = writeBehind == null ? CompletableFuture.completedFuture(null) : writeBehind.discardAll(keys);
+        return flushed.thenRunAsync(() -> {
+            if (keys.isEmpty()) {
+                return;
+            }
+
+            List<Object> ids = new ArrayList<>();
+            for (K key : keys) {
+                ids.add(convertUUIDtoString(key));
+            }
+            try {
+                getCollection().deleteMany(Filters.in("_id", ids));
+            } finally {
+                // after the delete, so a get running meanwhile can't cache the documents again
+                loader.invalidateAll(keys);
+                cache.invalidateAll(keys);
+                dirtyTracker.forgetAll(keys);
+            }
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> write() {
-        // No need to write to mongo
-        return CompletableFuture.completedFuture(null);
+        // Only pending write-behind values need to be written to mongo
+        return writeBehind == null ? CompletableFuture.completedFuture(null) : writeBehind.flush();
     }
 
     @Override
     public CompletableFuture<Void> close() {
+        if (hotKeys != null) {
+            hotKeys.write(cache);
+        }
+        if (snapshot != null) {
+            snapshot.write(cache);
+        }
         // No need to close mongo because it's handled by a provider
-        return CompletableFuture.completedFuture(null);
+        if (changeStream != null) {
+            changeStream.close();
+        }
+        return writeBehind == null ? CompletableFuture.completedFuture(null) : writeBehind.close();
     }
 
     @Override
     public CompletableFuture<Collection<V>> allValues() {
         return CompletableFuture.supplyAsync(() -> {
-            List<Document> into = getCollection().find().into(new ArrayList<>());
-            List<V> collection = new ArrayList<>();
+            return find(new Document(), null, 0).into(new ArrayList<>());
+        }, executor());
+    }
 
-            for (Document document : into) {
-                V obj = StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), valueClass);
-                collection.add(obj);
-            }
+    @Override
+    public CompletableFuture<Page<K, V>> scan(K afterKey, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            Bson filter = afterKey == null ? new Document() : Filters.gt("_id", convertUUIDtoString(afterKey));
+            List<V> values = find(filter, Sorts.ascending("_id"), limit).into(new ArrayList<>());
+            return Page.of(values, limit);
+        }, executor());
+    }
 
-            return collection;
-        }, StorageAPIConstants.DB_THREAD_POOL);
+    @Override
+    public Stream<V> stream() {
+        MongoCursor<V> cursor = find(new Document(), null, 0).cursor();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(cursor::close);
     }
 
     @Override
@@ -182,9 +508,11 @@ public class MongoKVStorage<K, V> implements KVStorage<K, V>, ConstructableValue
                         new Document(),
                         new Document("$rename", new Document(entry.getKey(), entry.getValue()))
                 );
-                cache().invalidateAll();
             }
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            loader.invalidateAll();
+            cache().invalidateAll();
+            dirtyTracker.clear();
+        }, executor());
     }
 
     @Override
@@ -195,7 +523,15 @@ public class MongoKVStorage<K, V> implements KVStorage<K, V>, ConstructableValue
                     new Document(),
                     new Document("$rename", new Document(path, newPath))
             );
+            loader.invalidateAll();
             cache().invalidateAll();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            dirtyTracker.clear();
+        }, executor());
+    }
+
+    /**
+     * The codec of the direct mode with the collections using it, swapped together.
+     */
+    private record Direct<V>(BsonSerializer<V> codec, MongoCollection<V> values, MongoCollection<RawBsonDocument> documents) {
     }
 }
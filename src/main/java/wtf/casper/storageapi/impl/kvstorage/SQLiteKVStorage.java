@@ -6,15 +6,22 @@ import lombok.SneakyThrows;
 import lombok.extern.java.Log;
 import wtf.casper.storageapi.KVStorage;
 import wtf.casper.storageapi.cache.Cache;
+import wtf.casper.storageapi.cache.CacheSnapshot;
 import wtf.casper.storageapi.cache.CaffeineCache;
+import wtf.casper.storageapi.cache.DirtyTracker;
+import wtf.casper.storageapi.cache.HotKeys;
+import wtf.casper.storageapi.cache.SingleFlightLoader;
+import wtf.casper.storageapi.cache.WriteBehindQueue;
 import wtf.casper.storageapi.id.exceptions.IdNotFoundException;
 import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.misc.ChangeLog;
 import wtf.casper.storageapi.misc.ISQLKVStorage;
+import wtf.casper.storageapi.serializer.Serializer;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
+import wtf.casper.storageapi.utils.StorageExecutor;
 
 import java.io.File;
 import java.lang.reflect.Field;
-import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
@@ -27,14 +34,28 @@ public abstract class SQLiteKVStorage<K, V> implements ISQLKVStorage<K, V>, KVSt
     protected final Class<V> valueClass;
     private final HikariDataSource ds;
     private final String table;
+    private int batchSize = StorageAPIConstants.DEFAULT_BATCH_SIZE;
+    private boolean numericId;
+    private StorageExecutor executor;
+    // created by this storage, so it is shut down when the storage is closed or the executor is replaced
+    private StorageExecutor ownedExecutor;
+    private Serializer<V> serializer;
+    private WriteBehindQueue<K, V> writeBehind;
+    private HotKeys<K> hotKeys;
+    private CacheSnapshot<K, V> snapshot;
+    private ChangeLog<K, V> changeLog;
+    private final DirtyTracker<K> dirtyTracker = new DirtyTracker<>();
+    private final SingleFlightLoader<K, V> loader = new SingleFlightLoader<>(this::cache);
     private Cache<K, V> cache = new CaffeineCache<>(Caffeine.newBuilder()
             .expireAfterWrite(10, TimeUnit.MINUTES)
+            .recordStats()
             .build());
 
     @SneakyThrows
     public SQLiteKVStorage(final Class<K> keyClass, final Class<V> valueClass, final File file, String table) {
         this.keyClass = keyClass;
         this.valueClass = valueClass;
+        this.serializer = Serializer.gson(valueClass);
         this.table = table;
         this.ds = new HikariDataSource();
         this.ds.setMaximumPoolSize(20);
@@ -43,6 +64,8 @@ public abstract class SQLiteKVStorage<K, V> implements ISQLKVStorage<K, V>, KVSt
         this.ds.setConnectionTimeout(120000);
         this.ds.setLeakDetectionThreshold(300000);
         this.ds.setAutoCommit(true);
+        this.executor = StorageExecutor.forDataSource(table + "-DB-Thread", this.ds);
+        this.ownedExecutor = this.executor;
         createTable();
     }
 
@@ -50,6 +73,7 @@ public abstract class SQLiteKVStorage<K, V> implements ISQLKVStorage<K, V>, KVSt
     public SQLiteKVStorage(final Class<K> keyClass, final Class<V> valueClass, final String table, final String connection) {
         this.keyClass = keyClass;
         this.valueClass = valueClass;
+        this.serializer = Serializer.gson(valueClass);
         this.table = table;
         this.ds = new HikariDataSource();
         this.ds.setMaximumPoolSize(20);
@@ -58,6 +82,8 @@ public abstract class SQLiteKVStorage<K, V> implements ISQLKVStorage<K, V>, KVSt
         this.ds.setConnectionTimeout(120000);
         this.ds.setLeakDetectionThreshold(300000);
         this.ds.setAutoCommit(true);
+        this.executor = StorageExecutor.forDataSource(table + "-DB-Thread", this.ds);
+        this.ownedExecutor = this.executor;
         createTable();
     }
 
@@ -76,6 +102,26 @@ public abstract class SQLiteKVStorage<K, V> implements ISQLKVStorage<K, V>, KVSt
         return table;
     }
 
+    @Override
+    public int batchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public void batchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean numericId() {
+        return numericId;
+    }
+
+    @Override
+    public void numericId(boolean numericId) {
+        this.numericId = numericId;
+    }
+
     @Override
     public Cache<K, V> cache() {
         return this.cache;
@@ -86,6 +132,99 @@ public abstract class SQLiteKVStorage<K, V> implements ISQLKVStorage<K, V>, KVSt
         this.cache = cache;
     }
 
+    @Override
+    public DirtyTracker<K> dirtyTracker() {
+        return this.dirtyTracker;
+    }
+
+    @Override
+    public SingleFlightLoader<K, V> loader() {
+        return this.loader;
+    }
+
+    @Override
+    public WriteBehindQueue<K, V> writeBehind() {
+        return this.writeBehind;
+    }
+
+    @Override
+    public void writeBehind(long interval, TimeUnit unit, int flushThreshold) {
+        if (this.writeBehind != null) {
+            this.writeBehind.close().join();
+        }
+        this.writeBehind = new WriteBehindQueue<>(interval, unit, flushThreshold, this::saveBatch);
+    }
+
+    @Override
+    public ChangeLog<K, V> changeLog() {
+        return this.changeLog;
+    }
+
+    @Override
+    public void changeLog(long pollInterval, TimeUnit unit) {
+        if (this.changeLog != null) {
+            this.changeLog.close();
+        }
+        this.changeLog = new ChangeLog<>(this, pollInterval, unit);
+    }
+
+    @Override
+    public HotKeys<K> hotKeys() {
+        return this.hotKeys;
+    }
+
+    @Override
+    public CompletableFuture<Integer> hotKeys(File file, int limit, int parallelism) {
+        this.hotKeys = new HotKeys<>(file, keyClass, limit);
+        return preload(this.hotKeys.read(), parallelism, null);
+    }
+
+    @Override
+    public CacheSnapshot<K, V> snapshot() {
+        return this.snapshot;
+    }
+
+    @Override
+    public int snapshot(File file, long maxAge, TimeUnit unit) {
+        this.snapshot = new CacheSnapshot<>(file, keyClass, valueClass, maxAge, unit);
+        return this.snapshot.restore(this);
+    }
+
+    @Override
+    public StorageExecutor executor() {
+        return executor;
+    }
+
+    @Override
+    public void executor(StorageExecutor executor) {
+        if (this.ownedExecutor != null && this.ownedExecutor != executor) {
+            // tasks that were already submitted still run
+            this.ownedExecutor.shutdown();
+            this.ownedExecutor = null;
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public Serializer<V> serializer() {
+        return serializer;
+    }
+
+    @Override
+    public void serializer(Serializer<V> serializer) {
+        serializer(serializer, false);
+    }
+
+    @Override
+    public void serializer(Serializer<V> serializer, boolean migrate) {
+        List<V> values = serializerSwitchValues(serializer, migrate);
+        boolean text = this.serializer.text();
+        this.serializer = serializer;
+        // hashes of the old serialized form would never match
+        this.dirtyTracker.clear();
+        finishSerializerSwitch(serializer.text() != text, values);
+    }
+
     @Override
     public Class<K> key() {
         return keyClass;
@@ -99,54 +238,138 @@ public abstract class SQLiteKVStorage<K, V> implements ISQLKVStorage<K, V>, KVSt
     @Override
     public CompletableFuture<Void> deleteAll() {
         return CompletableFuture.runAsync(() -> {
+            if (this.writeBehind != null) {
+                this.writeBehind.clear();
+            }
+            this.dirtyTracker.clear();
             execute("DELETE FROM " + this.table + ";");
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            this.loader.invalidateAll();
+            this.cache.invalidateAll();
+            if (this.changeLog != null) {
+                this.changeLog.recordAll();
+            }
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> remove(final V value) {
-        return CompletableFuture.runAsync(() -> {
+        // a flush that already sent the value has to land before the delete, or it would bring the row back
+        CompletableFuture<Void> flushed = this.writeBehind == null ? CompletableFuture.completedFuture(null)
+                : this.writeBehind.discard((K) IdUtils.getId(this.valueClass, value));
+        return flushed.thenRunAsync(() -> {
             Field idField;
             try {
                 idField = IdUtils.getIdField(valueClass);
             } catch (IdNotFoundException e) {
                 throw new RuntimeException(e);
             }
-            this.cache.invalidate((K) IdUtils.getId(this.valueClass, value));
+            K key = (K) IdUtils.getId(this.valueClass, value);
             String field = idField.getName();
-            this.execute("DELETE FROM " + this.table + " WHERE " + field + " = '" + IdUtils.getId(this.valueClass, value) + "';");
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            try {
+                if (!this.executeUpdate("DELETE FROM " + this.table + " WHERE `" + field + "` = ?;", statement -> {
+                    setId(statement, 1, key);
+                })) {
+                    throw new RuntimeException("Error while removing " + key + " from " + this.table);
+                }
+            } finally {
+                // after the delete, so a get running meanwhile can't cache the row again
+                this.loader.invalidate(key);
+                this.cache.invalidate(key);
+                this.dirtyTracker.forget(key);
+            }
+            if (this.changeLog != null) {
+                this.changeLog.record(List.of(key));
+            }
+        }, executor());
     }
 
     @Override
-    @SneakyThrows
-    public CompletableFuture<Void> write() {
-        return CompletableFuture.runAsync(() -> {
-            this.saveAll(this.cache.asMap().values());
-        }, StorageAPIConstants.DB_THREAD_POOL);
+    public CompletableFuture<V> get(K key) {
+        if (this.writeBehind != null) {
+            V pending = this.writeBehind.pending(key);
+            if (pending != null) {
+                return CompletableFuture.completedFuture(pending);
+            }
+        }
+        return this.loader.get(key, this::load);
+    }
+
+    @Override
+    public CompletableFuture<V> load(K key) {
+        return ISQLKVStorage.super.get(key);
     }
 
     @Override
     public CompletableFuture<Void> save(V value) {
-        return CompletableFuture.runAsync(() -> {
-            Object id = IdUtils.getId(value);
-            if (id == null) {
-                logger().warning("Could not find id field for " + value().getSimpleName());
-                return;
+        K key = (K) IdUtils.getId(this.valueClass, value);
+        this.cache.put(key, value);
+        this.loader.invalidate(key);
+        if (this.writeBehind == null) {
+            return ISQLKVStorage.super.save(value);
+        }
+
+        this.writeBehind.add(key, value);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAll(Collection<V> values) {
+        for (V value : values) {
+            K key = (K) IdUtils.getId(this.valueClass, value);
+            this.cache.put(key, value);
+            this.loader.invalidate(key);
+            if (this.writeBehind != null) {
+                this.writeBehind.add(key, value);
             }
+        }
 
-            String idName = IdUtils.getIdName(value());
-            String json = StorageAPIConstants.getGson().toJson(value);
-            executeUpdate("INSERT OR REPLACE INTO " + table + " (" + idName + ", json) VALUES (?, ?);", statement -> {
-                statement.setString(1, id.toString());
-                statement.setString(2, json);
-            });
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        if (this.writeBehind == null) {
+            return ISQLKVStorage.super.saveAll(values);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> write() {
+        if (this.writeBehind != null) {
+            return this.writeBehind.flush();
+        }
+
+        return CompletableFuture.runAsync(() -> {
+            Map<K, V> values = new HashMap<>(this.cache.asMap());
+            Map<K, Object> dirty = this.dirtyTracker.dirty(values, this::serialize);
+            int written = executeBatch(dirty);
+            log.fine("Wrote " + written + " changed values to " + this.table + ", skipped " + (values.size() - dirty.size()) + " unchanged values");
+        }, executor());
+    }
+
+    @Override
+    public String upsertStatement() {
+        return "INSERT OR REPLACE INTO " + this.table + " (" + IdUtils.getIdName(value()) + ", json) VALUES (?, ?);";
+    }
+
+    @Override
+    public String changeLogTableStatement(String changeTable) {
+        return "CREATE TABLE IF NOT EXISTS " + changeTable + " (version INTEGER PRIMARY KEY AUTOINCREMENT, id TEXT NULL, node TEXT NOT NULL, created INTEGER NOT NULL);";
     }
 
     @Override
     public CompletableFuture<Void> close() {
-        return CompletableFuture.runAsync(this.ds::close, StorageAPIConstants.DB_THREAD_POOL);
+        if (this.hotKeys != null) {
+            this.hotKeys.write(this.cache);
+        }
+        if (this.snapshot != null) {
+            this.snapshot.write(this.cache);
+        }
+        if (this.changeLog != null) {
+            this.changeLog.close();
+        }
+        CompletableFuture<Void> flush = this.writeBehind == null ? CompletableFuture.completedFuture(null) : this.writeBehind.close();
+        return flush.thenRunAsync(this.ds::close, executor()).thenRun(() -> {
+            if (this.ownedExecutor != null) {
+                this.ownedExecutor.shutdown();
+            }
+        });
     }
 
     @Override
@@ -154,43 +377,57 @@ public abstract class SQLiteKVStorage<K, V> implements ISQLKVStorage<K, V>, KVSt
         return CompletableFuture.supplyAsync(() -> {
             final List<V> values = new ArrayList<>();
 
-            query("SELECT * FROM " + this.table + ";", preparedStatement -> {}, resultSet -> {
-                try {
-                    while (resultSet.next()) {
-                        values.add(StorageAPIConstants.getGson().fromJson(resultSet.getString("json"), this.valueClass));
-                    }
-                } catch (final SQLException e) {
-                    e.printStackTrace();
+            executeQuery("SELECT * FROM " + this.table + ";", preparedStatement -> {}, resultSet -> {
+                while (resultSet.next()) {
+                    values.add(deserialize(readData(resultSet)));
                 }
-            }).join();
+            });
 
             return values;
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 
     @Override
     public void createTable() {
         String idName = IdUtils.getIdName(value());
         boolean isUUID = UUID.class.isAssignableFrom(IdUtils.getIdClass(value()));
-        String idType = isUUID ? "VARCHAR(36) NOT NULL" : "VARCHAR(255) NOT NULL";
+        String idType = numericKey() ? "INTEGER NOT NULL" : isUUID ? "VARCHAR(36) NOT NULL" : "VARCHAR(255) NOT NULL";
         idType = idName + " " + idType + " PRIMARY KEY";
 
-        execute("CREATE TABLE IF NOT EXISTS " + table() + " (" + idType + ", json TEXT NOT NULL);");
+        execute("CREATE TABLE IF NOT EXISTS " + table() + " (" + idType + ", json " + dataColumnType() + " NOT NULL);");
+        detectIdColumn();
+    }
+
+    @Override
+    public String dataColumnType() {
+        return serializer().text() ? "TEXT" : "BLOB";
+    }
+
+    @Override
+    public void alterDataColumn() {
+        // No-op, sqlite column types are only affinities and a TEXT column keeps blobs as they are
     }
 
     @Override
     public CompletableFuture<Void> renameField(String path, String newPath) {
+        requireTextData();
         return CompletableFuture.runAsync(() -> {
             cache().invalidateAll();
             execute("UPDATE " + this.table + " SET json = JSON_SET(json, '$." + newPath + "', JSON_EXTRACT(json, '$." + path + "'))," +
                     " json = JSON_REMOVE(json, '$." + path + "')", statement -> {
             });
+            this.loader.invalidateAll();
             cache().invalidateAll();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            this.dirtyTracker.clear();
+            if (this.changeLog != null) {
+                this.changeLog.recordAll();
+            }
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> renameFields(Map<String, String> pathToNewPath) {
+        requireTextData();
         return CompletableFuture.runAsync(() -> {
             cache().invalidateAll();
             pathToNewPath.forEach((path, newPath) -> {
@@ -198,7 +435,12 @@ public abstract class SQLiteKVStorage<K, V> implements ISQLKVStorage<K, V>, KVSt
                         " json = JSON_REMOVE(json, '$." + path + "')", statement -> {
                 });
             });
+            this.loader.invalidateAll();
             cache().invalidateAll();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            this.dirtyTracker.clear();
+            if (this.changeLog != null) {
+                this.changeLog.recordAll();
+            }
+        }, executor());
     }
 }
@@ -4,17 +4,20 @@ import com.zaxxer.hikari.HikariDataSource;
 import lombok.SneakyThrows;
 import lombok.extern.java.Log;
 import wtf.casper.storageapi.Credentials;
+import wtf.casper.storageapi.cache.DirtyTracker;
 import wtf.casper.storageapi.misc.ISQLKVStorage;
+import wtf.casper.storageapi.serializer.Serializer;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
+import wtf.casper.storageapi.utils.StorageExecutor;
 
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Log
 public class StatelessMariaDBKVStorage<K, V> implements ISQLKVStorage<K, V> {
@@ -22,6 +25,13 @@ public class StatelessMariaDBKVStorage<K, V> implements ISQLKVStorage<K, V> {
     private final Class<K> keyClass;
     private final Class<V> valueClass;
     private final String table;
+    private int batchSize = StorageAPIConstants.DEFAULT_BATCH_SIZE;
+    private boolean numericId;
+    private StorageExecutor executor;
+    // created by this storage, so it is shut down when the storage is closed or the executor is replaced
+    private StorageExecutor ownedExecutor;
+    private Serializer<V> serializer;
+    private DirtyTracker<K> dirtyTracker;
 
     public StatelessMariaDBKVStorage(final Class<K> keyClass, final Class<V> valueClass, final String table, final Credentials credentials) {
         this(keyClass, valueClass, table, credentials.getHost(), credentials.getPort(3306), credentials.getDatabase(), credentials.getUsername(), credentials.getPassword());
@@ -35,6 +45,7 @@ public class StatelessMariaDBKVStorage<K, V> implements ISQLKVStorage<K, V> {
     public StatelessMariaDBKVStorage(final Class<K> keyClass, final Class<V> valueClass, final String table, final String host, final int port, final String database, final String username, final String password) {
         this.keyClass = keyClass;
         this.valueClass = valueClass;
+        this.serializer = Serializer.gson(valueClass);
         this.table = table;
         this.ds = new HikariDataSource();
         this.ds.setMaximumPoolSize(20);
@@ -43,6 +54,8 @@ public class StatelessMariaDBKVStorage<K, V> implements ISQLKVStorage<K, V> {
         this.ds.addDataSourceProperty("user", username);
         this.ds.addDataSourceProperty("password", password);
         this.ds.setAutoCommit(true);
+        this.executor = StorageExecutor.forDataSource(table + "-DB-Thread", this.ds);
+        this.ownedExecutor = this.executor;
         createTable();
     }
 
@@ -61,6 +74,73 @@ public class StatelessMariaDBKVStorage<K, V> implements ISQLKVStorage<K, V> {
         return table;
     }
 
+    @Override
+    public int batchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public void batchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean numericId() {
+        return numericId;
+    }
+
+    @Override
+    public void numericId(boolean numericId) {
+        this.numericId = numericId;
+    }
+
+    @Override
+    public StorageExecutor executor() {
+        return executor;
+    }
+
+    @Override
+    public void executor(StorageExecutor executor) {
+        if (this.ownedExecutor != null && this.ownedExecutor != executor) {
+            // tasks that were already submitted still run
+            this.ownedExecutor.shutdown();
+            this.ownedExecutor = null;
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public Serializer<V> serializer() {
+        return serializer;
+    }
+
+    @Override
+    public void serializer(Serializer<V> serializer) {
+        serializer(serializer, false);
+    }
+
+    @Override
+    public void serializer(Serializer<V> serializer, boolean migrate) {
+        List<V> values = serializerSwitchValues(serializer, migrate);
+        boolean text = this.serializer.text();
+        this.serializer = serializer;
+        // hashes of the old serialized form would never match
+        if (this.dirtyTracker != null) {
+            this.dirtyTracker.clear();
+        }
+        finishSerializerSwitch(serializer.text() != text, values);
+    }
+
+    @Override
+    public DirtyTracker<K> dirtyTracker() {
+        return dirtyTracker;
+    }
+
+    @Override
+    public void dirtyTracker(DirtyTracker<K> dirtyTracker) {
+        this.dirtyTracker = dirtyTracker;
+    }
+
     @Override
     public Class<K> key() {
         return keyClass;
@@ -79,8 +159,11 @@ public class StatelessMariaDBKVStorage<K, V> implements ISQLKVStorage<K, V> {
     @Override
     public CompletableFuture<Void> deleteAll() {
         return CompletableFuture.runAsync(() -> {
+            if (this.dirtyTracker != null) {
+                this.dirtyTracker.clear();
+            }
             execute("DELETE FROM " + this.table + ";");
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 
     @Override
@@ -91,44 +174,45 @@ public class StatelessMariaDBKVStorage<K, V> implements ISQLKVStorage<K, V> {
             } catch (final SQLException e) {
                 e.printStackTrace();
             }
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor()).thenRun(() -> {
+            if (this.ownedExecutor != null) {
+                this.ownedExecutor.shutdown();
+            }
+        });
     }
 
     @Override
     public CompletableFuture<Collection<V>> allValues() {
         return CompletableFuture.supplyAsync(() -> {
-            final List<V> values = new ArrayList<>();
-            ResultSet set = query("SELECT * FROM " + this.table, statement -> {
-            }).join();
-
-            try {
-                while (set.next()) {
-                    values.add(StorageAPIConstants.getGson().fromJson(set.getString("data"), this.valueClass));
-                }
-                set.close();
-            } catch (final SQLException e) {
-                e.printStackTrace();
+            try (Stream<V> stream = stream()) {
+                return stream.collect(Collectors.toList());
             }
-
-            return values;
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> renameField(String path, String newPath) {
+        requireTextData();
         return CompletableFuture.runAsync(() -> {
+            if (this.dirtyTracker != null) {
+                this.dirtyTracker.clear();
+            }
             execute("UPDATE " + this.table + " SET data = JSON_SET(data, '$." + newPath + "', JSON_EXTRACT(data, '$." + path + "'));");
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> renameFields(Map<String, String> pathToNewPath) {
+        requireTextData();
         return CompletableFuture.runAsync(() -> {
+            if (this.dirtyTracker != null) {
+                this.dirtyTracker.clear();
+            }
             pathToNewPath.forEach((path, newPath) -> {
                 this.execute("UPDATE " + this.table + " SET data = JSON_SET(data, '$." + newPath + "', JSON_EXTRACT(data, '$." + path + "'))," +
                         " data = JSON_REMOVE(data, '$." + path + "')", statement -> {
                 });
             });
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 }
\ No newline at end of file
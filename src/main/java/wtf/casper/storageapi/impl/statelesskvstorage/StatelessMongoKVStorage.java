@@ -2,24 +2,35 @@ package wtf.casper.storageapi.impl.statelesskvstorage;
 
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
 import lombok.Getter;
 import lombok.extern.java.Log;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.conversions.Bson;
 import wtf.casper.storageapi.Credentials;
 import wtf.casper.storageapi.StatelessKVStorage;
+import wtf.casper.storageapi.cache.DirtyTracker;
 import wtf.casper.storageapi.id.utils.IdUtils;
 import wtf.casper.storageapi.misc.ConstructableValue;
 import wtf.casper.storageapi.misc.IMongoStorage;
 import wtf.casper.storageapi.misc.MongoProvider;
+import wtf.casper.storageapi.misc.Page;
+import wtf.casper.storageapi.serializer.BsonSerializer;
+import wtf.casper.storageapi.serializer.Serializer;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
+import wtf.casper.storageapi.utils.StorageExecutor;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Log
 public class StatelessMongoKVStorage<K, V> implements StatelessKVStorage<K, V>, ConstructableValue<K, V>, IMongoStorage {
@@ -31,6 +42,9 @@ public class StatelessMongoKVStorage<K, V> implements StatelessKVStorage<K, V>,
     @Getter
     private final MongoCollection<Document> collection;
     private final ReplaceOptions replaceOptions = new ReplaceOptions().upsert(true);
+    private StorageExecutor executor = StorageAPIConstants.DB_EXECUTOR;
+    private DirtyTracker<K> dirtyTracker;
+    private volatile Direct<V> direct;
 
     public StatelessMongoKVStorage(final Class<K> keyClass, final Class<V> valueClass, final Credentials credentials) {
         this(credentials.getUri(), credentials.getDatabase(), credentials.getCollection(), keyClass, valueClass);
@@ -51,6 +65,26 @@ public class StatelessMongoKVStorage<K, V> implements StatelessKVStorage<K, V>,
         this.collection = mongoDatabase.getCollection(collection);
     }
 
+    @Override
+    public StorageExecutor executor() {
+        return executor;
+    }
+
+    @Override
+    public void executor(StorageExecutor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public DirtyTracker<K> dirtyTracker() {
+        return dirtyTracker;
+    }
+
+    @Override
+    public void dirtyTracker(DirtyTracker<K> dirtyTracker) {
+        this.dirtyTracker = dirtyTracker;
+    }
+
     @Override
     public Class<K> key() {
         return keyClass;
@@ -61,51 +95,131 @@ public class StatelessMongoKVStorage<K, V> implements StatelessKVStorage<K, V>,
         return valueClass;
     }
 
+    @Override
+    public Serializer<V> serializer() {
+        Direct<V> direct = this.direct;
+        return direct != null ? direct.codec() : StatelessKVStorage.super.serializer();
+    }
+
+    /**
+     * @return true if values are encoded straight to bson, see {@link #directCodec(boolean)}.
+     */
+    public boolean directCodec() {
+        return direct != null;
+    }
+
+    /**
+     * Encodes values straight to bson and decodes them from a typed collection, instead of converting them to json
+     * and parsing that into a document. Documents look the same either way, so this can be switched on an existing collection.
+     */
+    public void directCodec(boolean enabled) {
+        if (enabled) {
+            BsonSerializer<V> codec = new BsonSerializer<>(valueClass, value -> convertUUIDtoString(IdUtils.getId(valueClass, value)));
+            this.direct = new Direct<>(
+                    codec,
+                    collection.withDocumentClass(valueClass)
+                            .withCodecRegistry(CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(codec), collection.getCodecRegistry())),
+                    collection.withDocumentClass(RawBsonDocument.class)
+            );
+        } else {
+            this.direct = null;
+        }
+        // hashes of the old serialized form would never match
+        if (dirtyTracker != null) {
+            dirtyTracker.clear();
+        }
+    }
+
+    private MongoIterable<V> find(Bson filter, Bson sort, int limit) {
+        Direct<V> direct = this.direct;
+        if (direct != null) {
+            return direct.values().find(filter).sort(sort).limit(limit).batchSize(StorageAPIConstants.DEFAULT_BATCH_SIZE);
+        }
+        return getCollection().find(filter).sort(sort).limit(limit).batchSize(StorageAPIConstants.DEFAULT_BATCH_SIZE)
+                .map(document -> StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), valueClass));
+    }
+
     @Override
     public CompletableFuture<Void> deleteAll() {
         return CompletableFuture.runAsync(() -> {
+            if (dirtyTracker != null) {
+                dirtyTracker.clear();
+            }
             getCollection().deleteMany(new Document());
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 
     @Override
     public CompletableFuture<V> get(K key) {
         return CompletableFuture.supplyAsync(() -> {
-            Document filter = new Document(idFieldName, convertUUIDtoString(key));
-            Document document = getCollection().find(filter).first();
+            return find(new Document(idFieldName, convertUUIDtoString(key)), null, 1).first();
+        }, executor());
+    }
+
+    @Override
+    public CompletableFuture<Map<K, V>> getAll(Collection<K> keys) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<K, V> values = new HashMap<>();
+            if (keys.isEmpty()) {
+                return values;
+            }
+
+            List<Object> ids = new ArrayList<>();
+            for (K key : keys) {
+                ids.add(convertUUIDtoString(key));
+            }
 
-            if (document == null) {
-                return null;
+            for (V obj : find(Filters.in(idFieldName, ids), null, 0)) {
+                values.put((K) IdUtils.getId(valueClass, obj), obj);
             }
 
-            return StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), valueClass);
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            return values;
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> save(V value) {
-        return CompletableFuture.runAsync(() -> {
-            K key = (K) IdUtils.getId(valueClass, value);
-            getCollection().replaceOne(
-                    new Document("_id", convertUUIDtoString(key)),
-                    Document.parse(StorageAPIConstants.getGson().toJson(value)),
-                    replaceOptions
-            );
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        return CompletableFuture.runAsync(() -> writeDocument(value), executor());
     }
 
     @Override
     public CompletableFuture<Void> saveAll(Collection<V> values) {
         return CompletableFuture.runAsync(() -> {
             for (V value : values) {
-                K key = (K) IdUtils.getId(valueClass, value);
-                getCollection().replaceOne(
-                        new Document("_id", convertUUIDtoString(key)),
-                        Document.parse(StorageAPIConstants.getGson().toJson(value)),
-                        replaceOptions
-                );
+                writeDocument(value);
             }
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
+    }
+
+    private void writeDocument(V value) {
+        K key = (K) IdUtils.getId(valueClass, value);
+        Direct<V> direct = this.direct;
+        if (direct != null) {
+            byte[] bson = direct.codec().serialize(value);
+            if (dirtyTracker != null && dirtyTracker.unchanged(key, bson)) {
+                return;
+            }
+
+            direct.documents().replaceOne(new Document("_id", convertUUIDtoString(key)), new RawBsonDocument(bson), replaceOptions);
+            if (dirtyTracker != null) {
+                dirtyTracker.markClean(key, bson);
+            }
+            return;
+        }
+
+        String json = StorageAPIConstants.getGson().toJson(value);
+        if (dirtyTracker != null && dirtyTracker.unchanged(key, json)) {
+            return;
+        }
+
+        getCollection().replaceOne(
+                new Document("_id", convertUUIDtoString(key)),
+                Document.parse(json),
+                replaceOptions
+        );
+        if (dirtyTracker != null) {
+            dirtyTracker.markClean(key, json);
+        }
     }
 
     @Override
@@ -113,11 +227,41 @@ public class StatelessMongoKVStorage<K, V> implements StatelessKVStorage<K, V>,
         return CompletableFuture.runAsync(() -> {
             try {
                 K id = (K) IdUtils.getId(valueClass, key);
+                if (dirtyTracker != null) {
+                    dirtyTracker.forget(id);
+                }
                 getCollection().deleteMany(new Document(idFieldName, convertUUIDtoString(id)));
             } catch (Exception e) {
                 e.printStackTrace();
             }
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAll(Collection<V> values) {
+        List<K> keys = new ArrayList<>();
+        for (V value : values) {
+            keys.add((K) IdUtils.getId(valueClass, value));
+        }
+        return removeKeys(keys);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeKeys(Collection<K> keys) {
+        return CompletableFuture.runAsync(() -> {
+            if (dirtyTracker != null) {
+                dirtyTracker.forgetAll(keys);
+            }
+            if (keys.isEmpty()) {
+                return;
+            }
+
+            List<Object> ids = new ArrayList<>();
+            for (K key : keys) {
+                ids.add(convertUUIDtoString(key));
+            }
+            getCollection().deleteMany(Filters.in(idFieldName, ids));
+        }, executor());
     }
 
     @Override
@@ -135,37 +279,57 @@ public class StatelessMongoKVStorage<K, V> implements StatelessKVStorage<K, V>,
     @Override
     public CompletableFuture<Collection<V>> allValues() {
         return CompletableFuture.supplyAsync(() -> {
-            List<Document> into = getCollection().find().into(new ArrayList<>());
-            List<V> collection = new ArrayList<>();
+            return find(new Document(), null, 0).into(new ArrayList<>());
+        }, executor());
+    }
 
-            for (Document document : into) {
-                V obj = StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), valueClass);
-                collection.add(obj);
-            }
+    @Override
+    public CompletableFuture<Page<K, V>> scan(K afterKey, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            Bson filter = afterKey == null ? new Document() : Filters.gt(idFieldName, convertUUIDtoString(afterKey));
+            List<V> values = find(filter, Sorts.ascending(idFieldName), limit).into(new ArrayList<>());
+            return Page.of(values, limit);
+        }, executor());
+    }
 
-            return collection;
-        }, StorageAPIConstants.DB_THREAD_POOL);
+    @Override
+    public Stream<V> stream() {
+        MongoCursor<V> cursor = find(new Document(), null, 0).cursor();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(cursor::close);
     }
 
     @Override
     public CompletableFuture<Void> renameFields(Map<String, String> pathToNewPath) {
         return CompletableFuture.runAsync(() -> {
+            if (dirtyTracker != null) {
+                dirtyTracker.clear();
+            }
             for (Map.Entry<String, String> entry : pathToNewPath.entrySet()) {
                 getCollection().updateMany(
                         new Document(),
                         new Document("$rename", new Document(entry.getKey(), entry.getValue()))
                 );
             }
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
     }
 
     @Override
     public CompletableFuture<Void> renameField(String path, String newPath) {
         return CompletableFuture.runAsync(() -> {
+            if (dirtyTracker != null) {
+                dirtyTracker.clear();
+            }
             getCollection().updateMany(
                     new Document(),
                     new Document("$rename", new Document(path, newPath))
             );
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }, executor());
+    }
+
+    /**
+     * The codec of the direct mode with the collections using it, swapped together.
+     */
+    private record Direct<V>(BsonSerializer<V> codec, MongoCollection<V> values, MongoCollection<RawBsonDocument> documents) {
     }
 }
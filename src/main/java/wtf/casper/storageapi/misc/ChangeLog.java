@@ -0,0 +1,294 @@
+package wtf.casper.storageapi.misc;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+import wtf.casper.storageapi.KVStorage;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the caches of several processes sharing one SQL table coherent.
+ * Every write appends the changed ids to a change-log table with an increasing version,
+ * and every process polls the rows newer than the last version it saw to invalidate exactly those keys.
+ * Rows without an id invalidate the whole cache, they are written by {@link KVStorage#deleteAll()}.
+ * Rows older than an hour are pruned, so the poll interval must be shorter than that.
+ * <p>
+ * Versions are assigned when a row is inserted, not when it is committed, so a poll can see a newer version
+ * before an older one is visible. Skipped versions are remembered and checked again on the next polls,
+ * until they show up or are old enough to belong to a transaction that rolled back.
+ */
+@Log
+public class ChangeLog<K, V> {
+
+    private static final long RETENTION = TimeUnit.HOURS.toMillis(1);
+    private static final long PRUNE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final long GAP_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    private static final int MAX_GAPS = 10_000;
+
+    private final ISQLKVStorage<K, V> storage;
+    private final KVStorage<K, V> cached;
+    @Getter
+    private final String table;
+    // identifies this process so it doesn't invalidate its own writes
+    @Getter
+    private final String node = UUID.randomUUID().toString();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicBoolean polling = new AtomicBoolean(false);
+    // skipped versions that may still be committed, with the time they were noticed
+    private final Map<Long, Long> gaps = new HashMap<>();
+    private final ScheduledFuture<?> task;
+    private volatile long lastPrune = System.currentTimeMillis();
+
+    public <S extends ISQLKVStorage<K, V> & KVStorage<K, V>> ChangeLog(final S storage, final long interval, final TimeUnit unit) {
+        this.storage = storage;
+        this.cached = storage;
+        this.table = storage.table() + "_changes";
+
+        storage.execute(storage.changeLogTableStatement(table));
+        storage.executeQuery("SELECT MAX(version) FROM " + table + ";", statement -> {
+        }, resultSet -> {
+            if (resultSet.next()) {
+                version.set(resultSet.getLong(1));
+            }
+        });
+
+        this.task = StorageAPIConstants.SCHEDULER.scheduleWithFixedDelay(() -> {
+            // only one poll at a time, the query itself runs on the storage executor
+            if (polling.compareAndSet(false, true)) {
+                CompletableFuture.runAsync(this::poll, storage.executor()).whenComplete((ignored, throwable) -> polling.set(false));
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Records that the given ids were written or removed by this process.
+     */
+    public void record(final Collection<?> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        insert(new ArrayList<>(ids));
+    }
+
+    /**
+     * Records that every key was changed by this process.
+     */
+    public void recordAll() {
+        final List<Object> all = new ArrayList<>();
+        all.add(null);
+        insert(all);
+    }
+
+    private void insert(final List<?> ids) {
+        final String statement = "INSERT INTO " + table + " (id, node, created) VALUES (?, ?, ?);";
+        try (final Connection connection = storage.dataSource().getConnection();
+             final PreparedStatement prepared = connection.prepareStatement(statement)) {
+            final long now = System.currentTimeMillis();
+            int pending = 0;
+            for (final Object id : ids) {
+                if (id == null) {
+                    prepared.setNull(1, Types.VARCHAR);
+                } else {
+                    prepared.setString(1, id.toString());
+                }
+                prepared.setString(2, node);
+                prepared.setLong(3, now);
+                prepared.addBatch();
+
+                if (++pending >= storage.batchSize()) {
+                    prepared.executeBatch();
+                    pending = 0;
+                }
+            }
+
+            if (pending > 0) {
+                prepared.executeBatch();
+            }
+        } catch (final SQLException e) {
+            log.warning("Error while recording changes in " + table);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Invalidates the keys changed by other processes since the last poll.
+     *
+     * @return the amount of changes made by other processes.
+     */
+    public synchronized int poll() {
+        int read = recheckGaps();
+        while (true) {
+            final Changes changes = new Changes();
+            final long from = version.get();
+            final int limit = storage.batchSize();
+
+            storage.executeQuery("SELECT version, id, node FROM " + table + " WHERE version > ? ORDER BY version LIMIT ?;", statement -> {
+                statement.setLong(1, from);
+                statement.setInt(2, limit);
+            }, changes::read);
+
+            final long now = System.currentTimeMillis();
+            long expected = from + 1;
+            for (final long seen : changes.versions) {
+                for (long gap = expected; gap < seen && gaps.size() < MAX_GAPS; gap++) {
+                    gaps.put(gap, now);
+                }
+                expected = seen + 1;
+            }
+            version.set(expected - 1);
+            read += invalidate(changes);
+
+            // a full page means there might be more changes waiting
+            if (changes.versions.size() < limit) {
+                break;
+            }
+        }
+
+        prune();
+        return read;
+    }
+
+    private int recheckGaps() {
+        if (gaps.isEmpty()) {
+            return 0;
+        }
+
+        final long now = System.currentTimeMillis();
+        gaps.values().removeIf(noticed -> now - noticed > GAP_TIMEOUT);
+
+        int read = 0;
+        final List<Long> versions = new ArrayList<>(gaps.keySet());
+        for (int i = 0; i < versions.size(); i += storage.batchSize()) {
+            final List<Long> chunk = versions.subList(i, Math.min(versions.size(), i + storage.batchSize()));
+            final String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            final Changes changes = new Changes();
+
+            storage.executeQuery("SELECT version, id, node FROM " + table + " WHERE version IN (" + placeholders + ");", statement -> {
+                for (int j = 0; j < chunk.size(); j++) {
+                    statement.setLong(j + 1, chunk.get(j));
+                }
+            }, changes::read);
+
+            changes.versions.forEach(gaps::remove);
+            read += invalidate(changes);
+        }
+        return read;
+    }
+
+    /**
+     * @return the amount of changes made by other processes.
+     */
+    private int invalidate(final Changes changes) {
+        final List<K> keys = new ArrayList<>();
+        boolean all = changes.all;
+        for (final String id : changes.ids) {
+            final K key = parseKey(id);
+            if (key == null) {
+                all = true;
+                break;
+            }
+            keys.add(key);
+        }
+
+        if (all) {
+            if (cached.loader() != null) {
+                cached.loader().invalidateAll();
+            }
+            cached.cache().invalidateAll();
+            if (cached.dirtyTracker() != null) {
+                cached.dirtyTracker().clear();
+            }
+        } else if (!keys.isEmpty()) {
+            if (cached.loader() != null) {
+                cached.loader().invalidateAll(keys);
+            }
+            cached.cache().invalidateAll(keys);
+            if (cached.dirtyTracker() != null) {
+                cached.dirtyTracker().forgetAll(keys);
+            }
+        }
+        return changes.ids.size() + (changes.all ? 1 : 0);
+    }
+
+    /**
+     * @return the key of a stored id, or null if it can't be parsed.
+     */
+    private K parseKey(final String id) {
+        final Class<K> keyClass = storage.key();
+        try {
+            if (String.class.isAssignableFrom(keyClass)) {
+                return (K) id;
+            }
+            if (UUID.class.isAssignableFrom(keyClass)) {
+                return (K) UUID.fromString(id);
+            }
+            if (Long.class.isAssignableFrom(keyClass)) {
+                return (K) Long.valueOf(id);
+            }
+            if (Integer.class.isAssignableFrom(keyClass)) {
+                return (K) Integer.valueOf(id);
+            }
+        } catch (final IllegalArgumentException e) {
+            log.warning("Could not parse change log id " + id + " as " + keyClass.getSimpleName() + ", invalidating the whole cache");
+            return null;
+        }
+
+        log.warning("Unsupported key type in change log: " + keyClass.getName() + ", invalidating the whole cache");
+        return null;
+    }
+
+    private void prune() {
+        final long now = System.currentTimeMillis();
+        if (now - lastPrune < PRUNE_INTERVAL) {
+            return;
+        }
+
+        lastPrune = now;
+        storage.executeUpdate("DELETE FROM " + table + " WHERE created < ?;", statement -> statement.setLong(1, now - RETENTION));
+    }
+
+    public void close() {
+        task.cancel(false);
+    }
+
+    // the rows read by one query
+    private final class Changes {
+        private final List<Long> versions = new ArrayList<>();
+        private final List<String> ids = new ArrayList<>();
+        private boolean all;
+
+        private void read(final ResultSet resultSet) throws SQLException {
+            while (resultSet.next()) {
+                versions.add(resultSet.getLong(1));
+                if (node.equals(resultSet.getString(3))) {
+                    continue;
+                }
+
+                final String id = resultSet.getString(2);
+                if (id == null) {
+                    all = true;
+                } else {
+                    ids.add(id);
+                }
+            }
+        }
+    }
+}
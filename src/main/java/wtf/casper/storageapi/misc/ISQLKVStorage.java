@@ -1,19 +1,30 @@
 package wtf.casper.storageapi.misc;
 
 import com.zaxxer.hikari.HikariDataSource;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.KVStorage;
 import wtf.casper.storageapi.StatelessKVStorage;
+import wtf.casper.storageapi.cache.Cache;
+import wtf.casper.storageapi.cache.DirtyTracker;
+import wtf.casper.storageapi.cache.SingleFlightLoader;
+import wtf.casper.storageapi.cache.WriteBehindQueue;
 import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.serializer.Serializer;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
 import wtf.casper.storageapi.utils.UnsafeConsumer;
 
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collection;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.logging.Logger;
 
 public interface ISQLKVStorage<K, V> extends StatelessKVStorage<K, V>, ConstructableValue<K, V> {
@@ -24,39 +35,396 @@ public interface ISQLKVStorage<K, V> extends StatelessKVStorage<K, V>, Construct
 
     Logger logger();
 
+    /**
+     * @return the maximum amount of rows sent to or fetched from the database in a single batch.
+     */
+    int batchSize();
+
+    /**
+     * @param batchSize the maximum amount of rows sent to or fetched from the database in a single batch.
+     */
+    void batchSize(int batchSize);
+
+    /**
+     * @return true if the id is a whole number, which new tables store in a BIGINT column.
+     */
+    default boolean numericKey() {
+        final Class<?> type = IdUtils.getIdType(value());
+        return type == long.class || type == Long.class || type == int.class || type == Integer.class
+                || type == short.class || type == Short.class || type == byte.class || type == Byte.class;
+    }
+
+    /**
+     * @return true if ids are bound with setLong instead of as a string, decided by {@link #createTable()}.
+     */
+    boolean numericId();
+
+    /**
+     * @param numericId true if ids are bound with setLong instead of as a string.
+     */
+    void numericId(boolean numericId);
+
+    /**
+     * Tables created before numeric ids were stored as numbers keep a VARCHAR id column, comparing it to a number
+     * makes the database cast every row and skip the primary key index.
+     *
+     * @return true if the id column of the existing table stores text.
+     */
+    default boolean textIdColumn() {
+        final String idName = IdUtils.getIdName(value());
+        try (Connection connection = dataSource().getConnection()) {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            for (final String table : List.of(table(), table().toLowerCase(Locale.ROOT), table().toUpperCase(Locale.ROOT))) {
+                try (ResultSet columns = metaData.getColumns(connection.getCatalog(), null, table, null)) {
+                    while (columns.next()) {
+                        if (!idName.equalsIgnoreCase(columns.getString("COLUMN_NAME"))) {
+                            continue;
+                        }
+                        final String type = columns.getString("TYPE_NAME").toUpperCase(Locale.ROOT);
+                        return type.contains("CHAR") || type.contains("TEXT") || type.contains("CLOB");
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger().warning("Failed to read the id column type of " + table() + ", binding ids as " + (numericKey() ? "numbers" : "strings"));
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Binds an id the way its column stores it, see {@link #numericId()}.
+     */
+    default void setId(final PreparedStatement statement, final int index, final Object id) throws SQLException {
+        if (numericId()) {
+            statement.setLong(index, ((Number) id).longValue());
+        } else {
+            statement.setString(index, id.toString());
+        }
+    }
+
+    /**
+     * @return the serialized form of the value as it is stored in the json column,
+     * a String for {@link Serializer#text()} serializers and a byte[] otherwise.
+     */
+    default Object serialize(final V value) {
+        final Serializer<V> serializer = serializer();
+        return serializer.text() ? serializer.serializeToString(value) : serializer.serialize(value);
+    }
+
+    /**
+     * @param data the serialized form returned by {@link #serialize(Object)} or {@link #readData(ResultSet)}.
+     */
+    default V deserialize(final Object data) {
+        return data instanceof byte[] bytes ? serializer().deserialize(bytes) : serializer().deserialize((String) data);
+    }
+
+    default Object readData(final ResultSet resultSet) throws SQLException {
+        return serializer().text() ? resultSet.getString("json") : resultSet.getBytes("json");
+    }
+
+    default void setData(final PreparedStatement statement, final int index, final Object data) throws SQLException {
+        if (data instanceof byte[] bytes) {
+            statement.setBytes(index, bytes);
+        } else {
+            statement.setString(index, (String) data);
+        }
+    }
+
+    /**
+     * @return the type of the json column, text for text serializers so the json functions used to rename fields keep working.
+     */
+    default String dataColumnType() {
+        return serializer().text() ? "LONGTEXT" : "LONGBLOB";
+    }
+
+    /**
+     * Changes the json column of an existing table to {@link #dataColumnType()} after the serializer changed.
+     * Stored rows are not converted.
+     */
+    default void alterDataColumn() {
+        execute("ALTER TABLE " + table() + " MODIFY json " + dataColumnType() + " NOT NULL;");
+    }
+
+    /**
+     * Stored rows written by a different serializer can't be read by the new one, so they are either converted or the
+     * switch is refused. A conversion holds every value in memory while the table is rewritten.
+     *
+     * @param serializer the serializer to store values with.
+     * @param migrate    true to rewrite the stored rows with the new serializer.
+     * @throws IllegalStateException if the stored rows can't be read by the new serializer and migrate is false.
+     */
+    void serializer(Serializer<V> serializer, boolean migrate);
+
+    /**
+     * Only the first row is read, setting the same serializer again after a restart is allowed that way.
+     *
+     * @return true if the table is empty or its rows can be read by the serializer.
+     */
+    default boolean readableBy(final Serializer<V> serializer) {
+        final AtomicReference<Boolean> readable = new AtomicReference<>(true);
+        executeQuery("SELECT json FROM " + table() + " LIMIT 1;", statement -> {
+        }, resultSet -> {
+            if (!resultSet.next()) {
+                return;
+            }
+
+            try {
+                if (serializer.text()) {
+                    serializer.deserialize(resultSet.getString("json"));
+                } else {
+                    serializer.deserialize(resultSet.getBytes("json"));
+                }
+            } catch (final RuntimeException e) {
+                readable.set(false);
+            }
+        });
+        return readable.get();
+    }
+
+    /**
+     * Reads the values to convert with the current serializer, before {@link #serializer(Serializer, boolean)} replaces it.
+     *
+     * @return the stored values if migrate is true, otherwise null.
+     * @throws IllegalStateException if the stored rows can't be read by the new serializer and migrate is false.
+     */
+    @Nullable
+    default List<V> serializerSwitchValues(final Serializer<V> serializer, final boolean migrate) {
+        if (!migrate) {
+            if (!readableBy(serializer)) {
+                throw new IllegalStateException(table() + " has rows the new serializer can't read, " +
+                        "use serializer(serializer, true) to convert them");
+            }
+            return null;
+        }
+
+        try (Stream<V> stream = stream()) {
+            return stream.toList();
+        }
+    }
+
+    /**
+     * Changes the json column if the serializer switched between text and binary, and writes the values read by
+     * {@link #serializerSwitchValues(boolean)} with the new serializer.
+     */
+    default void finishSerializerSwitch(final boolean textChanged, @Nullable final List<V> values) {
+        if (values != null && textChanged && !values.isEmpty()) {
+            // some databases can't convert the stored text to a blob or back, the rows are written again below
+            execute("DELETE FROM " + table() + ";");
+        }
+        if (textChanged) {
+            alterDataColumn();
+        }
+        if (values != null) {
+            final DirtyTracker<K> tracker = dirtyTracker();
+            if (tracker != null) {
+                tracker.clear();
+            }
+            executeBatch(values);
+        }
+    }
+
+    /**
+     * Renaming fields uses the database's json functions, which can't read values stored by a binary serializer.
+     *
+     * @throws UnsupportedOperationException if the serializer isn't a text serializer.
+     */
+    default void requireTextData() {
+        if (!serializer().text()) {
+            throw new UnsupportedOperationException("Renaming fields needs a text serializer, " + table() +
+                    " stores values with a binary one");
+        }
+    }
+
+    /**
+     * @return the statement used to insert or update a single row, taking the id and json as parameters.
+     */
+    default String upsertStatement() {
+        return "INSERT INTO " + table() + " (" + IdUtils.getIdName(value()) + ", json) VALUES (?, ?) ON DUPLICATE KEY UPDATE json = VALUES(json);";
+    }
+
+    /**
+     * @return the change log keeping this storage's cache coherent with other processes, or null if disabled.
+     */
+    @Nullable
+    default ChangeLog<K, V> changeLog() {
+        return null;
+    }
+
+    /**
+     * Records every write in a change log table and polls it to invalidate keys changed by other processes.
+     *
+     * @param pollInterval how often the change log is polled.
+     * @param unit         the unit of the interval.
+     */
+    default void changeLog(final long pollInterval, final TimeUnit unit) {
+        throw new UnsupportedOperationException("This storage does not support a change log");
+    }
+
+    /**
+     * @param changeTable the name of the change log table.
+     * @return the statement creating the change log table, see {@link ChangeLog}.
+     */
+    default String changeLogTableStatement(final String changeTable) {
+        return "CREATE TABLE IF NOT EXISTS " + changeTable + " (version BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, id VARCHAR(255) NULL, node VARCHAR(36) NOT NULL, created BIGINT NOT NULL);";
+    }
+
     @Override
     default CompletableFuture<Void> saveAll(final Collection<V> values) {
-        // TODO: generate a bulk insert https://stackoverflow.com/questions/452859/inserting-multiple-rows-in-a-single-sql-query
+        return this.saveBatch(values).thenApply(written -> null);
+    }
 
-        return CompletableFuture.runAsync(() -> {
-            for (final V value : values) {
-                this.save(value).join();
+    /**
+     * Saves all values using jdbc batching, sent in chunks of {@link #batchSize()} inside a single transaction.
+     *
+     * @param values the values to save.
+     * @return a future that will complete with the amount of rows written.
+     */
+    default CompletableFuture<Integer> saveBatch(final Collection<V> values) {
+        return CompletableFuture.supplyAsync(() -> this.executeBatch(values), executor());
+    }
+
+    /**
+     * Saves all values using jdbc batching, skipping the ones {@link #dirtyTracker()} knows to be unchanged.
+     *
+     * @return the amount of rows written.
+     */
+    default int executeBatch(final Collection<V> values) {
+        final DirtyTracker<K> tracker = dirtyTracker();
+        final Map<Object, Object> rows = new LinkedHashMap<>();
+        for (final V value : values) {
+            final Object id = IdUtils.getId(value(), value);
+            if (id == null) {
+                logger().warning("Could not find id field for " + value().getSimpleName());
+                continue;
             }
-        }, StorageAPIConstants.DB_THREAD_POOL);
+
+            final Object data = serialize(value);
+            if (tracker == null || !tracker.unchanged((K) id, data)) {
+                rows.put(id, data);
+            }
+        }
+
+        return this.executeBatch(rows);
     }
 
-    default CompletableFuture<ResultSet> query(final String query, final UnsafeConsumer<PreparedStatement> statement, final UnsafeConsumer<ResultSet> result) {
-        return CompletableFuture.supplyAsync(() -> {
+    /**
+     * @param rows the serialized form of every row to insert or update, by id, see {@link #serialize(Object)}.
+     * @return the amount of rows written.
+     * @throws RuntimeException if the batch failed, after the transaction was rolled back.
+     */
+    default int executeBatch(final Map<?, ?> rows) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        final String statement = this.upsertStatement();
+        for (int attempt = 0; ; attempt++) {
             try (final Connection connection = this.dataSource().getConnection()) {
-                try (final PreparedStatement prepared = connection.prepareStatement(query)) {
-                    statement.accept(prepared);
-                    final ResultSet resultSet = prepared.executeQuery();
-                    result.accept(resultSet);
-                    return resultSet;
+                final boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+
+                try (final PreparedStatement prepared = connection.prepareStatement(statement)) {
+                    int written = 0;
+                    int pending = 0;
+                    for (final Map.Entry<?, ?> row : rows.entrySet()) {
+                        this.setId(prepared, 1, row.getKey());
+                        this.setData(prepared, 2, row.getValue());
+                        prepared.addBatch();
+
+                        if (++pending >= this.batchSize()) {
+                            prepared.executeBatch();
+                            written += pending;
+                            pending = 0;
+                        }
+                    }
+
+                    if (pending > 0) {
+                        prepared.executeBatch();
+                        written += pending;
+                    }
+
+                    connection.commit();
+
+                    final DirtyTracker<K> tracker = dirtyTracker();
+                    if (tracker != null) {
+                        rows.forEach((id, data) -> tracker.markClean((K) id, data));
+                    }
+                    if (this.changeLog() != null) {
+                        this.changeLog().record(rows.keySet());
+                    }
+                    return written;
                 } catch (final SQLException e) {
-                    logger().warning("Error while executing query: " + query);
-                    e.printStackTrace();
+                    connection.rollback();
+                    if (this.retryBusy(e, attempt)) {
+                        continue;
+                    }
+
+                    logger().warning("Error while executing batch: " + statement);
+                    throw new RuntimeException("Error while executing batch: " + statement, e);
+                } finally {
+                    connection.setAutoCommit(autoCommit);
                 }
             } catch (final SQLException e) {
-                if (e.getMessage().contains("[SQLITE_BUSY]")) {
-                    return this.query(query, statement, result).join();
+                if (this.retryBusy(e, attempt)) {
+                    continue;
                 }
 
-                logger().warning("Error while executing query: " + query);
-                e.printStackTrace();
+                logger().warning("Error while executing batch: " + statement);
+                throw new RuntimeException("Error while executing batch: " + statement, e);
             }
-            return null;
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        }
+    }
+
+    /**
+     * Waits before another attempt if the database was locked by another connection.
+     *
+     * @param attempt the amount of attempts already made.
+     * @return true if the statement should be tried again.
+     */
+    private boolean retryBusy(final SQLException e, final int attempt) {
+        if (e.getMessage() == null || !e.getMessage().contains("[SQLITE_BUSY]") || attempt >= StorageAPIConstants.BUSY_RETRIES) {
+            return false;
+        }
+
+        try {
+            Thread.sleep(StorageAPIConstants.BUSY_RETRY_DELAY_MS * (attempt + 1));
+            return true;
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    default CompletableFuture<ResultSet> query(final String query, final UnsafeConsumer<PreparedStatement> statement, final UnsafeConsumer<ResultSet> result) {
+        return CompletableFuture.supplyAsync(() -> {
+            // retry on the same thread instead of queueing another task, so a busy database can't exhaust the executor
+            for (int attempt = 0; ; attempt++) {
+                try (final Connection connection = this.dataSource().getConnection()) {
+                    try (final PreparedStatement prepared = connection.prepareStatement(query)) {
+                        statement.accept(prepared);
+                        final ResultSet resultSet = prepared.executeQuery();
+                        result.accept(resultSet);
+                        return resultSet;
+                    } catch (final SQLException e) {
+                        if (this.retryBusy(e, attempt)) {
+                            continue;
+                        }
+
+                        logger().warning("Error while executing query: " + query);
+                        e.printStackTrace();
+                    }
+                } catch (final SQLException e) {
+                    if (this.retryBusy(e, attempt)) {
+                        continue;
+                    }
+
+                    logger().warning("Error while executing query: " + query);
+                    e.printStackTrace();
+                }
+                return null;
+            }
+        }, executor());
     }
 
     default CompletableFuture<ResultSet> query(final String query, final UnsafeConsumer<ResultSet> result) {
@@ -70,22 +438,29 @@ public interface ISQLKVStorage<K, V> extends StatelessKVStorage<K, V>, Construct
     }
 
     default void execute(final String statement, final UnsafeConsumer<PreparedStatement> consumer) {
-        try (final Connection connection = this.dataSource().getConnection()) {
-            try (final PreparedStatement prepared = connection.prepareStatement(statement)) {
-                consumer.accept(prepared);
-                prepared.execute();
+        for (int attempt = 0; ; attempt++) {
+            try (final Connection connection = this.dataSource().getConnection()) {
+                try (final PreparedStatement prepared = connection.prepareStatement(statement)) {
+                    consumer.accept(prepared);
+                    prepared.execute();
+                    return;
+                } catch (final SQLException e) {
+                    if (this.retryBusy(e, attempt)) {
+                        continue;
+                    }
+
+                    logger().warning("Error while executing query: " + statement);
+                    e.printStackTrace();
+                }
             } catch (final SQLException e) {
+                if (this.retryBusy(e, attempt)) {
+                    continue;
+                }
+
                 logger().warning("Error while executing query: " + statement);
                 e.printStackTrace();
             }
-        } catch (final SQLException e) {
-            if (e.getMessage().contains("[SQLITE_BUSY]")) {
-                this.execute(statement, consumer);
-                return;
-            }
-
-            logger().warning("Error while executing query: " + statement);
-            e.printStackTrace();
+            return;
         }
     }
 
@@ -95,107 +470,379 @@ public interface ISQLKVStorage<K, V> extends StatelessKVStorage<K, V>, Construct
     }
 
     default void executeQuery(final String statement, final UnsafeConsumer<PreparedStatement> consumer) {
-        try (final Connection connection = this.dataSource().getConnection()) {
-            try (final PreparedStatement prepared = connection.prepareStatement(statement)) {
-                consumer.accept(prepared);
-                prepared.executeQuery();
+        this.executeQuery(statement, consumer, resultSet -> {
+        });
+    }
+
+    default void executeQuery(final String statement, final UnsafeConsumer<PreparedStatement> consumer, final UnsafeConsumer<ResultSet> result) {
+        for (int attempt = 0; ; attempt++) {
+            try (final Connection connection = this.dataSource().getConnection()) {
+                try (final PreparedStatement prepared = connection.prepareStatement(statement)) {
+                    consumer.accept(prepared);
+                    try (final ResultSet resultSet = prepared.executeQuery()) {
+                        result.accept(resultSet);
+                    }
+                    return;
+                } catch (final SQLException e) {
+                    if (this.retryBusy(e, attempt)) {
+                        continue;
+                    }
+
+                    logger().warning("Error while executing query: " + statement);
+                    e.printStackTrace();
+                }
             } catch (final SQLException e) {
+                if (this.retryBusy(e, attempt)) {
+                    continue;
+                }
+
                 logger().warning("Error while executing query: " + statement);
                 e.printStackTrace();
             }
-        } catch (final SQLException e) {
-            if (e.getMessage().contains("[SQLITE_BUSY]")) {
-                this.executeQuery(statement, consumer);
-                return;
-            }
-
-            logger().warning("Error while executing query: " + statement);
-            e.printStackTrace();
+            return;
         }
     }
 
-    default void executeUpdate(final String statement) {
-        this.executeUpdate(statement, ps -> {
+    default boolean executeUpdate(final String statement) {
+        return this.executeUpdate(statement, ps -> {
         });
     }
 
-    default void executeUpdate(final String statement, final UnsafeConsumer<PreparedStatement> consumer) {
-        try (final Connection connection = this.dataSource().getConnection()) {
-            try (final PreparedStatement prepared = connection.prepareStatement(statement)) {
-                consumer.accept(prepared);
-                prepared.executeUpdate();
+    /**
+     * @return true if the statement was executed, false if it failed and the error was logged.
+     */
+    default boolean executeUpdate(final String statement, final UnsafeConsumer<PreparedStatement> consumer) {
+        for (int attempt = 0; ; attempt++) {
+            try (final Connection connection = this.dataSource().getConnection()) {
+                try (final PreparedStatement prepared = connection.prepareStatement(statement)) {
+                    consumer.accept(prepared);
+                    prepared.executeUpdate();
+                    return true;
+                } catch (final SQLException e) {
+                    if (this.retryBusy(e, attempt)) {
+                        continue;
+                    }
+
+                    logger().warning("Error while executing query: " + statement);
+                    e.printStackTrace();
+                }
             } catch (final SQLException e) {
+                if (this.retryBusy(e, attempt)) {
+                    continue;
+                }
+
                 logger().warning("Error while executing query: " + statement);
                 e.printStackTrace();
             }
-        } catch (final SQLException e) {
-            logger().warning("Error while executing query: " + statement);
-            e.printStackTrace();
+            return false;
         }
     }
 
     default void createTable() {
         String idName = IdUtils.getIdName(value());
         boolean isUUID = UUID.class.isAssignableFrom(IdUtils.getIdClass(value()));
-        String idType = isUUID ? "VARCHAR(36) NOT NULL" : "VARCHAR(255) NOT NULL";
+        String idType = numericKey() ? "BIGINT NOT NULL" : isUUID ? "VARCHAR(36) NOT NULL" : "VARCHAR(255) NOT NULL";
         idType = idName + " " + idType + " PRIMARY KEY";
 
-        execute("CREATE TABLE IF NOT EXISTS " + table() + " (" + idType + ", json LONGTEXT NOT NULL);");
+        execute("CREATE TABLE IF NOT EXISTS " + table() + " (" + idType + ", json " + dataColumnType() + " NOT NULL);");
+        detectIdColumn();
+    }
+
+    /**
+     * Binds numeric ids as numbers only if the existing id column stores numbers, see {@link #textIdColumn()}.
+     */
+    default void detectIdColumn() {
+        if (!numericKey()) {
+            numericId(false);
+            return;
+        }
+
+        final boolean text = textIdColumn();
+        if (text) {
+            logger().warning("The id column of " + table() + " stores text, ids are bound as strings. " +
+                    "Change it to BIGINT to compare ids as numbers.");
+        }
+        numericId(!text);
     }
 
     default CompletableFuture<Void> save(V value) {
         return CompletableFuture.runAsync(() -> {
-            Object id = IdUtils.getId(value());
+            Object id = IdUtils.getId(value(), value);
             if (id == null) {
                 logger().warning("Could not find id field for " + value().getSimpleName());
                 return;
             }
 
-            String idName = IdUtils.getIdName(value());
-            String json = StorageAPIConstants.getGson().toJson(value);
-            executeUpdate("INSERT INTO " + table() + " (" + idName + ", json) VALUES (?, ?) ON DUPLICATE KEY UPDATE json = ?;", statement -> {
-                statement.setString(1, id.toString());
-                statement.setString(2, json);
+            Object data = serialize(value);
+            DirtyTracker<K> tracker = dirtyTracker();
+            if (tracker != null && tracker.unchanged((K) id, data)) {
+                return;
+            }
+
+            boolean written = executeUpdate(upsertStatement(), statement -> {
+                setId(statement, 1, id);
+                setData(statement, 2, data);
             });
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            if (!written) {
+                throw new RuntimeException("Error while saving " + id + " to " + table());
+            }
+            if (tracker != null) {
+                tracker.markClean((K) id, data);
+            }
+            if (changeLog() != null) {
+                changeLog().record(List.of(id));
+            }
+        }, executor());
     }
 
     default CompletableFuture<Void> remove(V value) {
         return CompletableFuture.runAsync(() -> {
-            Object id = IdUtils.getId(value());
+            Object id = IdUtils.getId(value(), value);
             if (id == null) {
                 logger().warning("Could not find id field for " + value().getSimpleName());
                 return;
             }
 
+            if (dirtyTracker() != null) {
+                dirtyTracker().forget((K) id);
+            }
+
             String idName = IdUtils.getIdName(value());
-            executeUpdate("DELETE FROM " + table() + " WHERE `" + idName + "` = ?;", statement -> {
-                statement.setString(1, id.toString());
-            });
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            if (!executeUpdate("DELETE FROM " + table() + " WHERE `" + idName + "` = ?;", statement -> {
+                setId(statement, 1, id);
+            })) {
+                throw new RuntimeException("Error while removing " + id + " from " + table());
+            }
+            if (changeLog() != null) {
+                changeLog().record(List.of(id));
+            }
+        }, executor());
+    }
+
+    @Override
+    default CompletableFuture<Void> removeAll(final Collection<V> values) {
+        final List<K> keys = new ArrayList<>();
+        for (final V value : values) {
+            final Object id = IdUtils.getId(value(), value);
+            if (id == null) {
+                logger().warning("Could not find id field for " + value().getSimpleName());
+                continue;
+            }
+            keys.add((K) id);
+        }
+
+        return this.removeKeys(keys);
+    }
+
+    @Override
+    default CompletableFuture<Void> removeKeys(final Collection<K> keys) {
+        final WriteBehindQueue<K, V> writeBehind = this instanceof KVStorage<?, ?> ? ((KVStorage<K, V>) this).writeBehind() : null;
+        // a flush that already sent the values has to land before the delete, or it would bring the rows back
+        final CompletableFuture<Void> flushed = writeBehind == null ? CompletableFuture.completedFuture(null) : writeBehind.discardAll(keys);
+        return flushed.thenRunAsync(() -> {
+            final List<K> ids = new ArrayList<>(keys);
+            final String idName = IdUtils.getIdName(value());
+            try {
+                for (int i = 0; i < ids.size(); i += batchSize()) {
+                    final List<K> chunk = ids.subList(i, Math.min(ids.size(), i + batchSize()));
+                    final String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+                    final String statement = "DELETE FROM " + table() + " WHERE `" + idName + "` IN (" + placeholders + ");";
+
+                    if (!executeUpdate(statement, prepared -> {
+                        for (int j = 0; j < chunk.size(); j++) {
+                            setId(prepared, j + 1, chunk.get(j));
+                        }
+                    })) {
+                        throw new RuntimeException("Error while executing delete: " + statement);
+                    }
+                }
+            } finally {
+                // after the delete, so a get running meanwhile can't cache the rows again
+                if (this instanceof KVStorage<?, ?>) {
+                    final KVStorage<K, V> storage = (KVStorage<K, V>) this;
+                    if (storage.loader() != null) {
+                        storage.loader().invalidateAll(keys);
+                    }
+                    storage.cache().invalidateAll(keys);
+                }
+                if (dirtyTracker() != null) {
+                    dirtyTracker().forgetAll(keys);
+                }
+            }
+
+            if (changeLog() != null) {
+                changeLog().record(keys);
+            }
+        }, executor());
     }
 
     default CompletableFuture<V> get(K key) {
+        return CompletableFuture.supplyAsync(() -> this.read(key), executor());
+    }
+
+    /**
+     * Reads a single value on the calling thread.
+     *
+     * @param key the key to search for.
+     * @return the value that matches the given key or null if not found.
+     */
+    default V read(final K key) {
+        final String idName = IdUtils.getIdName(value());
+        final AtomicReference<V> value = new AtomicReference<>();
+
+        executeQuery("SELECT * FROM " + table() + " WHERE `" + idName + "` = ?;", statement -> {
+            setId(statement, 1, key);
+        }, resultSet -> {
+            if (resultSet.next()) {
+                final Object data = readData(resultSet);
+                value.set(deserialize(data));
+                if (dirtyTracker() != null) {
+                    dirtyTracker().markClean(key, data);
+                }
+            }
+        });
+
+        return value.get();
+    }
+
+    @Override
+    default CompletableFuture<Map<K, V>> getAll(final Collection<K> keys) {
         return CompletableFuture.supplyAsync(() -> {
-            String idName = IdUtils.getIdName(value());
+            final Map<K, V> values = new HashMap<>();
+            final Cache<K, V> cache = this instanceof KVStorage<?, ?> ? ((KVStorage<K, V>) this).cache() : null;
+            final WriteBehindQueue<K, V> writeBehind = this instanceof KVStorage<?, ?> ? ((KVStorage<K, V>) this).writeBehind() : null;
+            final DirtyTracker<K> tracker = dirtyTracker();
+            final SingleFlightLoader<K, V> loader = this instanceof KVStorage<?, ?> ? ((KVStorage<K, V>) this).loader() : null;
 
-            AtomicReference<V> value = new AtomicReference<>();
+            final List<K> misses = new ArrayList<>();
+            for (final K key : keys) {
+                V cached = cache == null ? null : cache.getIfPresent(key);
+                if (cached == null && writeBehind != null) {
+                    cached = writeBehind.pending(key);
+                }
 
-            query("SELECT * FROM " + table() + " WHERE `" + idName + "` = ?;", statement -> {
-                statement.setString(1, key.toString());
-            }, resultSet -> {
-                try {
-                    if (resultSet.next()) {
-                        value.set(StorageAPIConstants.getGson().fromJson(resultSet.getString("json"), value()));
+                if (cached != null) {
+                    values.put(key, cached);
+                } else if (loader == null || !loader.isAbsent(key)) {
+                    misses.add(key);
+                }
+            }
+
+            if (misses.isEmpty()) {
+                return values;
+            }
+
+            final String idName = IdUtils.getIdName(value());
+            // started before reading, so a save or remove meanwhile isn't overwritten by the older rows
+            final SingleFlightLoader<K, V>.BulkLoad bulkLoad = loader == null ? null : loader.bulkLoad();
+            try {
+                for (int i = 0; i < misses.size(); i += batchSize()) {
+                    final List<K> chunk = misses.subList(i, Math.min(misses.size(), i + batchSize()));
+                    final String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+
+                    executeQuery("SELECT * FROM " + table() + " WHERE `" + idName + "` IN (" + placeholders + ");", statement -> {
+                        for (int j = 0; j < chunk.size(); j++) {
+                            setId(statement, j + 1, chunk.get(j));
+                        }
+                    }, resultSet -> {
+                        while (resultSet.next()) {
+                            final Object data = readData(resultSet);
+                            V value = deserialize(data);
+                            final K key = (K) IdUtils.getId(value(), value);
+                            if (bulkLoad != null) {
+                                value = bulkLoad.publish(key, value);
+                            } else if (cache != null) {
+                                final V previous = cache.putIfAbsent(key, value);
+                                value = previous == null ? value : previous;
+                            }
+                            values.put(key, value);
+                            if (tracker != null) {
+                                tracker.markClean(key, data);
+                            }
+                        }
+                    });
+                }
+            } finally {
+                if (bulkLoad != null) {
+                    bulkLoad.close();
+                }
+            }
+
+            return values;
+        }, executor());
+    }
+
+    @Override
+    default Stream<V> stream() {
+        final String statement = "SELECT json FROM " + table() + ";";
+        Connection connection = null;
+        try {
+            connection = this.dataSource().getConnection();
+            // most drivers only honour the fetch size inside a transaction
+            connection.setAutoCommit(false);
+            final PreparedStatement prepared = connection.prepareStatement(statement, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            prepared.setFetchSize(batchSize());
+            final ResultSet resultSet = prepared.executeQuery();
+
+            final Spliterator<V> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(final Consumer<? super V> action) {
+                    try {
+                        if (!resultSet.next()) {
+                            return false;
+                        }
+
+                        action.accept(deserialize(readData(resultSet)));
+                        return true;
+                    } catch (final SQLException e) {
+                        throw new RuntimeException("Error while streaming query: " + statement, e);
                     }
-                } catch (SQLException e) {
+                }
+            };
+
+            final Connection streamConnection = connection;
+            return StreamSupport.stream(spliterator, false).onClose(() -> {
+                try (streamConnection; prepared; resultSet) {
+                    streamConnection.commit();
+                } catch (final SQLException e) {
+                    logger().warning("Error while closing query: " + statement);
                     e.printStackTrace();
                 }
+            });
+        } catch (final SQLException e) {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (final SQLException ignored) {
+                }
+            }
+
+            logger().warning("Error while executing query: " + statement);
+            e.printStackTrace();
+            return Stream.empty();
+        }
+    }
 
-                resultSet.close();
-            }).join();
+    @Override
+    default CompletableFuture<Page<K, V>> scan(final K afterKey, final int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            final List<V> values = new ArrayList<>();
+            final String idName = IdUtils.getIdName(value());
+            final String where = afterKey == null ? "" : " WHERE `" + idName + "` > ?";
+
+            executeQuery("SELECT json FROM " + table() + where + " ORDER BY `" + idName + "` LIMIT ?;", statement -> {
+                int index = 1;
+                if (afterKey != null) {
+                    setId(statement, index++, afterKey);
+                }
+                statement.setInt(index, limit);
+            }, resultSet -> {
+                while (resultSet.next()) {
+                    values.add(deserialize(readData(resultSet)));
+                }
+            });
 
-            return value.get();
-        }, StorageAPIConstants.DB_THREAD_POOL);
+            return Page.of(values, limit);
+        }, executor());
     }
 }
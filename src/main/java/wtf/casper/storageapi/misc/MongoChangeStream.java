@@ -0,0 +1,224 @@
+package wtf.casper.storageapi.misc;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import wtf.casper.storageapi.KVStorage;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Tails a change stream on a mongo collection and keeps a storage's cache coherent with writes made by other processes.
+ * Updated documents that are cached are replaced by the new version, deleted documents are invalidated.
+ * The resume token of the last handled event is kept, so the stream continues where it left off after a reconnect.
+ * Change streams require mongo to run as a replica set or sharded cluster.
+ */
+@Log
+public class MongoChangeStream<K, V> {
+
+    // the server no longer has the events after the resume token
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final long MAX_RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private final KVStorage<K, V> storage;
+    private final KeyValue<K, V> types;
+    private final MongoCollection<Document> collection;
+    private final Function<Document, V> decoder;
+    private final Thread thread;
+    private volatile boolean running = true;
+    /**
+     * The resume token of the last handled event, null until the first event is received.
+     */
+    @Getter
+    private volatile BsonDocument resumeToken;
+
+    /**
+     * @param resumeToken a token previously returned by {@link #getResumeToken()} to continue from, or null to start from now.
+     */
+    public <S extends KVStorage<K, V> & KeyValue<K, V>> MongoChangeStream(final S storage, final MongoCollection<Document> collection, final BsonDocument resumeToken) {
+        this(storage, collection, resumeToken, document -> StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), storage.value()));
+    }
+
+    /**
+     * @param resumeToken a token previously returned by {@link #getResumeToken()} to continue from, or null to start from now.
+     * @param decoder     turns changed documents into values, the way the storage reads them.
+     */
+    public <S extends KVStorage<K, V> & KeyValue<K, V>> MongoChangeStream(final S storage, final MongoCollection<Document> collection, final BsonDocument resumeToken, final Function<Document, V> decoder) {
+        this.storage = storage;
+        this.types = storage;
+        this.collection = collection;
+        this.decoder = decoder;
+        this.resumeToken = resumeToken;
+        this.thread = new Thread(this::run);
+        this.thread.setDaemon(true);
+        this.thread.setName("wtf.casper.storageapi Change-Stream-Thread " + collection.getNamespace().getFullName());
+        this.thread.start();
+    }
+
+    private void run() {
+        long delay = 100;
+        while (running) {
+            ChangeStreamIterable<Document> iterable = collection.watch()
+                    .fullDocument(FullDocument.UPDATE_LOOKUP)
+                    .maxAwaitTime(1, TimeUnit.SECONDS);
+            if (resumeToken != null) {
+                iterable = iterable.resumeAfter(resumeToken);
+            }
+
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = iterable.cursor()) {
+                delay = 100;
+                while (running) {
+                    ChangeStreamDocument<Document> event = cursor.tryNext();
+                    if (event != null) {
+                        handle(event);
+                    }
+                    // also advances on empty batches, so a quiet collection doesn't resume from an expired token
+                    if (cursor.getResumeToken() != null) {
+                        resumeToken = cursor.getResumeToken();
+                    }
+                }
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST) {
+                    log.warning("Change stream history lost for " + collection.getNamespace() + ", invalidating the whole cache");
+                    resumeToken = null;
+                    invalidateAll();
+                    continue;
+                }
+                delay = reconnect(e, delay);
+            } catch (MongoException | IllegalStateException e) {
+                if (!running) {
+                    return;
+                }
+                delay = reconnect(e, delay);
+            }
+        }
+    }
+
+    private long reconnect(final Exception e, final long delay) {
+        log.warning("Change stream on " + collection.getNamespace() + " failed, reconnecting in " + delay + "ms: " + e.getMessage());
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+        return Math.min(delay * 2, MAX_RECONNECT_DELAY);
+    }
+
+    private void handle(final ChangeStreamDocument<Document> event) {
+        switch (event.getOperationType()) {
+            case INSERT, UPDATE, REPLACE -> {
+                K key = parseKey(event.getDocumentKey());
+                if (key == null) {
+                    return;
+                }
+                refresh(key, event.getFullDocument());
+            }
+            case DELETE -> {
+                K key = parseKey(event.getDocumentKey());
+                if (key == null) {
+                    return;
+                }
+                if (storage.loader() != null) {
+                    storage.loader().invalidate(key);
+                }
+                storage.cache().invalidate(key);
+                if (storage.dirtyTracker() != null) {
+                    storage.dirtyTracker().forget(key);
+                }
+            }
+            // the collection is gone, the stream ends with an invalidate event and is reopened
+            case DROP, RENAME, DROP_DATABASE, INVALIDATE -> {
+                resumeToken = null;
+                invalidateAll();
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void refresh(final K key, final Document document) {
+        // a value waiting to be written by this process is newer than anything in the database
+        if (storage.writeBehind() != null && storage.writeBehind().pending(key) != null) {
+            return;
+        }
+
+        if (storage.loader() != null) {
+            storage.loader().invalidate(key);
+        }
+
+        V cached = storage.cache().getIfPresent(key);
+        // not cached, or the document was deleted again before it could be looked up
+        if (cached == null || document == null) {
+            // only drops the entry the event is about, a value saved by this process meanwhile is newer
+            if (cached == null || storage.cache().replace(key, cached, null)) {
+                if (storage.dirtyTracker() != null) {
+                    storage.dirtyTracker().forget(key);
+                }
+            }
+            return;
+        }
+
+        V value = decoder.apply(document);
+        // keep the cached instance when this was our own write, callers may hold on to it, and keep a value
+        // saved by this process after the event was produced
+        if (Objects.equals(cached, value) || storage.cache().replace(key, cached, value)) {
+            if (storage.dirtyTracker() != null) {
+                storage.dirtyTracker().markClean(key, storage.serializer().serialize(value));
+            }
+        }
+    }
+
+    private void invalidateAll() {
+        if (storage.loader() != null) {
+            storage.loader().invalidateAll();
+        }
+        storage.cache().invalidateAll();
+        if (storage.dirtyTracker() != null) {
+            storage.dirtyTracker().clear();
+        }
+    }
+
+    private K parseKey(final BsonDocument documentKey) {
+        if (documentKey == null || !documentKey.containsKey("_id")) {
+            return null;
+        }
+
+        BsonValue id = documentKey.get("_id");
+        Class<K> keyClass = types.key();
+        if (id.isString()) {
+            String value = id.asString().getValue();
+            if (UUID.class.isAssignableFrom(keyClass)) {
+                return (K) UUID.fromString(value);
+            }
+            return (K) value;
+        }
+        if (id.isInt32()) {
+            return (K) Integer.valueOf(id.asInt32().getValue());
+        }
+        if (id.isInt64()) {
+            return (K) Long.valueOf(id.asInt64().getValue());
+        }
+
+        log.warning("Unsupported _id type in change stream: " + id.getBsonType());
+        return null;
+    }
+
+    public void close() {
+        running = false;
+        thread.interrupt();
+    }
+}
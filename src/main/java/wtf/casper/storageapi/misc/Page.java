@@ -0,0 +1,41 @@
+package wtf.casper.storageapi.misc;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.id.utils.IdUtils;
+
+import java.util.List;
+
+/**
+ * A single page of a keyset scan, see {@link wtf.casper.storageapi.StatelessKVStorage#scan(Object, int)}.
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class Page<K, V> {
+
+    private final List<V> values;
+    @Nullable
+    private final K nextKey;
+
+    /**
+     * @param values the values of the page, in key order.
+     * @param limit  the limit the page was requested with.
+     * @return a page that continues after the last value, or a final page if fewer values than the limit were found.
+     */
+    public static <K, V> Page<K, V> of(final List<V> values, final int limit) {
+        if (values.isEmpty() || values.size() < limit) {
+            return new Page<>(values, null);
+        }
+
+        return new Page<>(values, (K) IdUtils.getId(values.get(values.size() - 1)));
+    }
+
+    /**
+     * @return whether there may be more values after this page.
+     */
+    public boolean hasNext() {
+        return nextKey != null;
+    }
+}
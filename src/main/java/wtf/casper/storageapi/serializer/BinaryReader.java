@@ -0,0 +1,272 @@
+package wtf.casper.storageapi.serializer;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static wtf.casper.storageapi.serializer.BinarySerializer.*;
+
+/**
+ * Reads the format of {@link BinarySerializer} as the tokens Gson's type adapters expect, the way Gson's own tree
+ * reader replaces the text input of {@link JsonReader}.
+ */
+final class BinaryReader extends JsonReader {
+
+    private static final int END = -1;
+
+    private final byte[] data;
+    private final List<String> names = new ArrayList<>();
+    private int position;
+
+    BinaryReader(final byte[] data) throws MalformedJsonException {
+        super(Reader.nullReader());
+        if (data.length == 0 || data[0] != FORMAT) {
+            throw new MalformedJsonException("Unknown binary format " + (data.length == 0 ? "(empty)" : data[0]));
+        }
+        this.data = data;
+        this.position = 1;
+    }
+
+    private int nextTag() {
+        return position < data.length ? data[position] : END;
+    }
+
+    private void expect(final byte tag, final JsonToken token) throws IOException {
+        if (nextTag() != tag) {
+            throw new IllegalStateException("Expected " + token + " but was " + peek() + " at " + getPath());
+        }
+        position++;
+    }
+
+    private long varint() throws MalformedJsonException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = data[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new MalformedJsonException("Malformed varint at " + getPath());
+    }
+
+    private String string() throws MalformedJsonException {
+        final int length = (int) varint();
+        if (length < 0 || length > data.length - position) {
+            throw new MalformedJsonException("Malformed string at " + getPath());
+        }
+        final String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    private long zigzag() throws MalformedJsonException {
+        final long value = varint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private double rawDouble() {
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (data[position++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        return switch (nextTag()) {
+            case NULL -> JsonToken.NULL;
+            case TRUE, FALSE -> JsonToken.BOOLEAN;
+            case BEGIN_OBJECT -> JsonToken.BEGIN_OBJECT;
+            case END_OBJECT -> JsonToken.END_OBJECT;
+            case BEGIN_ARRAY -> JsonToken.BEGIN_ARRAY;
+            case END_ARRAY -> JsonToken.END_ARRAY;
+            case NAME, NAME_REF -> JsonToken.NAME;
+            case STRING -> JsonToken.STRING;
+            case LONG, DOUBLE, NUMBER -> JsonToken.NUMBER;
+            case END -> JsonToken.END_DOCUMENT;
+            default -> throw new MalformedJsonException("Unknown tag " + nextTag() + " at " + getPath());
+        };
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(BEGIN_ARRAY, JsonToken.BEGIN_ARRAY);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(END_ARRAY, JsonToken.END_ARRAY);
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(BEGIN_OBJECT, JsonToken.BEGIN_OBJECT);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(END_OBJECT, JsonToken.END_OBJECT);
+    }
+
+    @Override
+    public boolean hasNext() {
+        final int tag = nextTag();
+        return tag != END_OBJECT && tag != END_ARRAY && tag != END;
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        switch (nextTag()) {
+            case NAME -> {
+                position++;
+                final String name = string();
+                names.add(name);
+                return name;
+            }
+            case NAME_REF -> {
+                position++;
+                final int index = (int) varint();
+                if (index < 0 || index >= names.size()) {
+                    throw new MalformedJsonException("Unknown name " + index + " at " + getPath());
+                }
+                return names.get(index);
+            }
+            default -> throw new IllegalStateException("Expected a name but was " + peek() + " at " + getPath());
+        }
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        switch (nextTag()) {
+            case STRING, NUMBER -> {
+                position++;
+                return string();
+            }
+            case LONG -> {
+                position++;
+                return Long.toString(zigzag());
+            }
+            case DOUBLE -> {
+                position++;
+                return Double.toString(rawDouble());
+            }
+            default -> throw new IllegalStateException("Expected a string but was " + peek() + " at " + getPath());
+        }
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        final int tag = nextTag();
+        if (tag != TRUE && tag != FALSE) {
+            throw new IllegalStateException("Expected a boolean but was " + peek() + " at " + getPath());
+        }
+        position++;
+        return tag == TRUE;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(NULL, JsonToken.NULL);
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        switch (nextTag()) {
+            case DOUBLE -> {
+                position++;
+                return rawDouble();
+            }
+            case LONG -> {
+                position++;
+                return zigzag();
+            }
+            // like JsonReader, numbers written as strings are accepted too
+            case NUMBER, STRING -> {
+                position++;
+                return Double.parseDouble(string());
+            }
+            default -> throw new IllegalStateException("Expected a double but was " + peek() + " at " + getPath());
+        }
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        if (nextTag() == LONG) {
+            position++;
+            return zigzag();
+        }
+
+        final int start = position;
+        final double value = nextDouble();
+        final long result = (long) value;
+        if (result != value) {
+            position = start;
+            throw new NumberFormatException("Expected a long but was " + value + " at " + getPath());
+        }
+        return result;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        final int start = position;
+        final long value = nextLong();
+        if ((int) value != value) {
+            position = start;
+            throw new NumberFormatException("Expected an int but was " + value + " at " + getPath());
+        }
+        return (int) value;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (nextTag()) {
+                case BEGIN_OBJECT, BEGIN_ARRAY -> {
+                    position++;
+                    depth++;
+                }
+                case END_OBJECT, END_ARRAY -> {
+                    position++;
+                    depth--;
+                }
+                // names are remembered, later values may refer to them
+                case NAME, NAME_REF -> {
+                    nextName();
+                    continue;
+                }
+                case NULL, TRUE, FALSE -> position++;
+                case STRING, NUMBER, LONG, DOUBLE -> nextString();
+                default -> throw new MalformedJsonException("Unknown tag " + nextTag() + " at " + getPath());
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() {
+        // No-op
+    }
+
+    @Override
+    public String getPath() {
+        return "byte " + position;
+    }
+
+    @Override
+    public String getPreviousPath() {
+        return getPath();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " at " + getPath();
+    }
+}
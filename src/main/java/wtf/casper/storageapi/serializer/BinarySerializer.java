@@ -0,0 +1,154 @@
+package wtf.casper.storageapi.serializer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Serializes values to a compact binary form of what Gson would write as json.
+ * <p>
+ * Values go through the same type adapters as json, so exclusions like {@link wtf.casper.storageapi.id.Transient} and
+ * registered adapters still apply, but numbers are written as varints or raw doubles instead of decimal text, strings
+ * aren't escaped and every field name is written once per value and then referenced by index. Reading doesn't have to
+ * parse any text, except for numbers that don't fit a long or a double.
+ */
+public class BinarySerializer<V> implements Serializer<V> {
+
+    static final byte FORMAT = 1;
+
+    static final byte NULL = 0;
+    static final byte TRUE = 1;
+    static final byte FALSE = 2;
+    static final byte BEGIN_OBJECT = 3;
+    static final byte END_OBJECT = 4;
+    static final byte BEGIN_ARRAY = 5;
+    static final byte END_ARRAY = 6;
+    // a new field name, remembered under the next index
+    static final byte NAME = 7;
+    // the index of a field name that was already written
+    static final byte NAME_REF = 8;
+    static final byte STRING = 9;
+    // zigzag varint
+    static final byte LONG = 10;
+    // 8 bytes, the raw bits
+    static final byte DOUBLE = 11;
+    // the decimal text of numbers that fit neither, like BigDecimal
+    static final byte NUMBER = 12;
+
+    /**
+     * Gson's map adapter reads object keys through reader internals that a subclass can't reach,
+     * so maps written as objects are read through a tree instead. Also used by {@link BsonSerializer}.
+     */
+    static final TypeAdapterFactory MAPS = new TypeAdapterFactory() {
+        @Override
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (!Map.class.isAssignableFrom(type.getRawType())) {
+                return null;
+            }
+
+            final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+            final TypeAdapter<JsonElement> tree = gson.getAdapter(JsonElement.class);
+            return new TypeAdapter<>() {
+                @Override
+                public void write(JsonWriter out, T value) throws IOException {
+                    delegate.write(out, value);
+                }
+
+                @Override
+                public T read(JsonReader in) throws IOException {
+                    if (!(in instanceof BinaryReader || in instanceof BsonValueReader) || in.peek() != JsonToken.BEGIN_OBJECT) {
+                        return delegate.read(in);
+                    }
+                    return delegate.fromJsonTree(tree.read(in));
+                }
+            };
+        }
+    };
+
+    @Nullable
+    private final Gson gson;
+    private final Class<V> type;
+    private volatile Adapters<V> adapters;
+
+    /**
+     * Follows {@link StorageAPIConstants#getGson()}, so replacing it there also changes this serializer.
+     */
+    public BinarySerializer(final Class<V> type) {
+        this(null, type);
+    }
+
+    public BinarySerializer(@Nullable final Gson gson, final Class<V> type) {
+        this.gson = gson;
+        this.type = type;
+    }
+
+    private Adapters<V> adapters() {
+        final Gson base = gson == null ? StorageAPIConstants.getGson() : gson;
+        Adapters<V> adapters = this.adapters;
+        if (adapters == null || adapters.base != base) {
+            final Gson binary = base.newBuilder().registerTypeAdapterFactory(MAPS).create();
+            adapters = new Adapters<>(base, binary.serializeNulls(), binary.getAdapter(type), binary.getAdapter(JsonElement.class));
+            this.adapters = adapters;
+        }
+        return adapters;
+    }
+
+    @Override
+    public byte[] serialize(V value) {
+        final Adapters<V> adapters = adapters();
+        final BinaryWriter writer = new BinaryWriter();
+        writer.setSerializeNulls(adapters.serializeNulls);
+        try {
+            adapters.value.write(writer, value);
+        } catch (final IOException e) {
+            throw new JsonIOException(e);
+        }
+        return writer.toByteArray();
+    }
+
+    @Override
+    public V deserialize(byte[] data) {
+        try {
+            return adapters().value.read(new BinaryReader(data));
+        } catch (final IOException | IllegalStateException | IndexOutOfBoundsException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    @Override
+    public JsonElement readTree(byte[] data) {
+        try {
+            return adapters().tree.read(new BinaryReader(data));
+        } catch (final IOException | IllegalStateException | IndexOutOfBoundsException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    @Override
+    public byte[] writeTree(JsonElement tree) {
+        final Adapters<V> adapters = adapters();
+        final BinaryWriter writer = new BinaryWriter();
+        writer.setSerializeNulls(adapters.serializeNulls);
+        try {
+            adapters.tree.write(writer, tree);
+        } catch (final IOException e) {
+            throw new JsonIOException(e);
+        }
+        return writer.toByteArray();
+    }
+
+    private record Adapters<V>(Gson base, boolean serializeNulls, TypeAdapter<V> value, TypeAdapter<JsonElement> tree) {
+    }
+}
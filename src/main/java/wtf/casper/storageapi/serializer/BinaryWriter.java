@@ -0,0 +1,243 @@
+package wtf.casper.storageapi.serializer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static wtf.casper.storageapi.serializer.BinarySerializer.*;
+
+/**
+ * Writes the tokens Gson's type adapters produce in the format of {@link BinarySerializer}, the way Gson's own tree
+ * writer replaces the text output of {@link JsonWriter}.
+ */
+final class BinaryWriter extends JsonWriter {
+
+    private static final TypeAdapter<JsonElement> TREE = new Gson().getAdapter(JsonElement.class);
+
+    private final Map<String, Integer> names = new HashMap<>();
+    private byte[] buffer = new byte[256];
+    private int size;
+    // written with the next value, so a null value can drop its name when nulls aren't serialized
+    private String pendingName;
+
+    BinaryWriter() {
+        super(Writer.nullWriter());
+        buffer[size++] = FORMAT;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private void ensure(final int bytes) {
+        if (size + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + bytes));
+        }
+    }
+
+    private void tag(final byte tag) {
+        ensure(1);
+        buffer[size++] = tag;
+    }
+
+    private void varint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    private void string(final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        varint(bytes.length);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void writeName() {
+        if (pendingName == null) {
+            return;
+        }
+
+        final Integer index = names.get(pendingName);
+        if (index != null) {
+            tag(NAME_REF);
+            varint(index);
+        } else {
+            names.put(pendingName, names.size());
+            tag(NAME);
+            string(pendingName);
+        }
+        pendingName = null;
+    }
+
+    @Override
+    public JsonWriter beginArray() {
+        writeName();
+        tag(BEGIN_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() {
+        tag(END_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() {
+        writeName();
+        tag(BEGIN_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() {
+        if (pendingName != null) {
+            throw new IllegalStateException("Name " + pendingName + " has no value");
+        }
+        tag(END_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) {
+        Objects.requireNonNull(name, "name == null");
+        if (pendingName != null) {
+            throw new IllegalStateException("Name " + pendingName + " has no value");
+        }
+        pendingName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        writeName();
+        tag(STRING);
+        string(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter jsonValue(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        TREE.write(this, JsonParser.parseString(value));
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() {
+        if (pendingName != null && !getSerializeNulls()) {
+            pendingName = null;
+            return this;
+        }
+        writeName();
+        tag(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) {
+        writeName();
+        tag(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) {
+        return value == null ? nullValue() : value(value.booleanValue());
+    }
+
+    @Override
+    public JsonWriter value(float value) {
+        return value((double) value);
+    }
+
+    @Override
+    public JsonWriter value(double value) {
+        writeName();
+        tag(DOUBLE);
+        ensure(8);
+        final long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[size++] = (byte) (bits >>> shift);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) {
+        writeName();
+        tag(LONG);
+        varint((value << 1) ^ (value >> 63));
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicInteger || value instanceof AtomicLong) {
+            return value(value.longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return value(value.doubleValue());
+        }
+
+        // lazily parsed numbers from a json tree are written compactly if that doesn't change their text
+        final String text = value.toString();
+        try {
+            final long longValue = Long.parseLong(text);
+            if (Long.toString(longValue).equals(text)) {
+                return value(longValue);
+            }
+        } catch (final NumberFormatException ignored) {
+            try {
+                final double doubleValue = Double.parseDouble(text);
+                if (Double.toString(doubleValue).equals(text)) {
+                    return value(doubleValue);
+                }
+            } catch (final NumberFormatException ignoredToo) {
+                // not a plain long or double, kept as text below
+            }
+        }
+
+        // BigDecimal, BigInteger and anything else keep their exact text
+        writeName();
+        tag(NUMBER);
+        string(text);
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        // No-op
+    }
+
+    @Override
+    public void close() {
+        // No-op
+    }
+}
@@ -0,0 +1,128 @@
+package wtf.casper.storageapi.serializer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.mongodb.MongoClientSettings;
+import org.bson.*;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * Encodes values straight to bson and back, without going through json text.
+ * <p>
+ * Values go through the same type adapters as json, so {@link wtf.casper.storageapi.id.Transient} fields and registered
+ * adapters are honoured, and documents look the same as the ones {@link org.bson.Document#parse(String)} makes of the
+ * json. That keeps documents written by either path readable by the other. The {@code _id} of a document is written
+ * first, from the id function, and ignored when reading unless the value has a field with that name.
+ * <p>
+ * As a {@link Codec} this can back a typed {@link com.mongodb.client.MongoCollection}, as a {@link Serializer} it
+ * produces the bson bytes of a document.
+ */
+public class BsonSerializer<V> implements Serializer<V>, Codec<V> {
+
+    private static final CodecRegistry REGISTRY = MongoClientSettings.getDefaultCodecRegistry();
+    private static final BsonDocumentCodec DOCUMENTS = new BsonDocumentCodec();
+
+    @Nullable
+    private final Gson gson;
+    private final Class<V> type;
+    private final Function<V, Object> id;
+    private volatile Adapters<V> adapters;
+
+    /**
+     * Follows {@link StorageAPIConstants#getGson()}, so replacing it there also changes this serializer.
+     *
+     * @param id the {@code _id} of a value, already in the form it is queried with, or null to not write one.
+     */
+    public BsonSerializer(final Class<V> type, final Function<V, Object> id) {
+        this(null, type, id);
+    }
+
+    public BsonSerializer(@Nullable final Gson gson, final Class<V> type, final Function<V, Object> id) {
+        this.gson = gson;
+        this.type = type;
+        this.id = id;
+    }
+
+    private Adapters<V> adapters() {
+        final Gson base = gson == null ? StorageAPIConstants.getGson() : gson;
+        Adapters<V> adapters = this.adapters;
+        if (adapters == null || adapters.base != base) {
+            final Gson bson = base.newBuilder().registerTypeAdapterFactory(BinarySerializer.MAPS).create();
+            adapters = new Adapters<>(base, bson.serializeNulls(), bson.getAdapter(type));
+            this.adapters = adapters;
+        }
+        return adapters;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void encode(final BsonWriter writer, final V value, final EncoderContext encoderContext) {
+        final Adapters<V> adapters = adapters();
+        final Object documentId = id.apply(value);
+        final BsonValueWriter out = new BsonValueWriter(writer, documentId == null ? null : bson -> {
+            bson.writeName("_id");
+            ((Codec<Object>) REGISTRY.get(documentId.getClass())).encode(bson, documentId, encoderContext);
+        });
+        out.setSerializeNulls(adapters.serializeNulls);
+        try {
+            adapters.value.write(out, value);
+        } catch (final IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public V decode(final BsonReader reader, final DecoderContext decoderContext) {
+        if (!(reader instanceof AbstractBsonReader)) {
+            return decode(DOCUMENTS.decode(reader, decoderContext));
+        }
+
+        try {
+            return adapters().value.read(new BsonValueReader((AbstractBsonReader) reader));
+        } catch (final IOException | IllegalStateException | BsonInvalidOperationException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    public V decode(final BsonDocument document) {
+        try (BsonDocumentReader reader = new BsonDocumentReader(document)) {
+            return decode(reader, DecoderContext.builder().build());
+        }
+    }
+
+    @Override
+    public Class<V> getEncoderClass() {
+        return type;
+    }
+
+    @Override
+    public byte[] serialize(V value) {
+        try (BasicOutputBuffer buffer = new BasicOutputBuffer(); BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            encode(writer, value, EncoderContext.builder().build());
+            return buffer.toByteArray();
+        }
+    }
+
+    @Override
+    public V deserialize(byte[] data) {
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(data))) {
+            return decode(reader, DecoderContext.builder().build());
+        }
+    }
+
+    private record Adapters<V>(Gson base, boolean serializeNulls, TypeAdapter<V> value) {
+    }
+}
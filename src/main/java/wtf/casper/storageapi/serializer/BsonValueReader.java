@@ -0,0 +1,197 @@
+package wtf.casper.storageapi.serializer;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.bson.AbstractBsonReader;
+import org.bson.BsonInvalidOperationException;
+import org.bson.BsonType;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+
+/**
+ * Reads a bson document as the tokens Gson's type adapters expect, straight from a {@link AbstractBsonReader}.
+ */
+final class BsonValueReader extends JsonReader {
+
+    private final AbstractBsonReader reader;
+
+    BsonValueReader(final AbstractBsonReader reader) {
+        super(Reader.nullReader());
+        this.reader = reader;
+    }
+
+    private BsonType type() {
+        final AbstractBsonReader.State state = reader.getState();
+        if (state == AbstractBsonReader.State.INITIAL || state == AbstractBsonReader.State.TYPE) {
+            reader.readBsonType();
+        }
+        return reader.getCurrentBsonType();
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        final BsonType type = type();
+        return switch (reader.getState()) {
+            case NAME -> JsonToken.NAME;
+            case END_OF_DOCUMENT -> JsonToken.END_OBJECT;
+            case END_OF_ARRAY -> JsonToken.END_ARRAY;
+            case DONE -> JsonToken.END_DOCUMENT;
+            default -> switch (type) {
+                case DOCUMENT -> JsonToken.BEGIN_OBJECT;
+                case ARRAY -> JsonToken.BEGIN_ARRAY;
+                case BOOLEAN -> JsonToken.BOOLEAN;
+                case NULL, UNDEFINED -> JsonToken.NULL;
+                case INT32, INT64, DOUBLE, DECIMAL128, DATE_TIME -> JsonToken.NUMBER;
+                // everything else is read as its text, like object ids
+                default -> JsonToken.STRING;
+            };
+        };
+    }
+
+    @Override
+    public void beginArray() {
+        type();
+        reader.readStartArray();
+    }
+
+    @Override
+    public void endArray() {
+        type();
+        reader.readEndArray();
+    }
+
+    @Override
+    public void beginObject() {
+        type();
+        reader.readStartDocument();
+    }
+
+    @Override
+    public void endObject() {
+        type();
+        reader.readEndDocument();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        final JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public String nextName() {
+        type();
+        return reader.readName();
+    }
+
+    @Override
+    public String nextString() {
+        return switch (type()) {
+            case STRING -> reader.readString();
+            case SYMBOL -> reader.readSymbol();
+            case OBJECT_ID -> reader.readObjectId().toHexString();
+            case INT32 -> Integer.toString(reader.readInt32());
+            case INT64 -> Long.toString(reader.readInt64());
+            case DOUBLE -> Double.toString(reader.readDouble());
+            case DECIMAL128 -> reader.readDecimal128().toString();
+            case DATE_TIME -> Long.toString(reader.readDateTime());
+            case JAVASCRIPT -> reader.readJavaScript();
+            default -> throw new IllegalStateException("Expected a string but was " + reader.getCurrentBsonType() + " at " + getPath());
+        };
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        type();
+        return reader.readBoolean();
+    }
+
+    @Override
+    public void nextNull() {
+        if (type() == BsonType.UNDEFINED) {
+            reader.readUndefined();
+        } else {
+            reader.readNull();
+        }
+    }
+
+    @Override
+    public double nextDouble() {
+        return switch (type()) {
+            case DOUBLE -> reader.readDouble();
+            case INT32 -> reader.readInt32();
+            case INT64 -> reader.readInt64();
+            case DATE_TIME -> reader.readDateTime();
+            // like JsonReader, numbers written as strings are accepted too
+            default -> Double.parseDouble(nextString());
+        };
+    }
+
+    @Override
+    public long nextLong() {
+        return switch (type()) {
+            case INT32 -> reader.readInt32();
+            case INT64 -> reader.readInt64();
+            case DATE_TIME -> reader.readDateTime();
+            case DOUBLE -> {
+                final double value = reader.readDouble();
+                if ((long) value != value) {
+                    throw new NumberFormatException("Expected a long but was " + value + " at " + getPath());
+                }
+                yield (long) value;
+            }
+            default -> {
+                final String value = nextString();
+                try {
+                    yield new BigDecimal(value).longValueExact();
+                } catch (final ArithmeticException e) {
+                    throw new NumberFormatException("Expected a long but was " + value + " at " + getPath());
+                }
+            }
+        };
+    }
+
+    @Override
+    public int nextInt() {
+        final long value = nextLong();
+        if ((int) value != value) {
+            throw new NumberFormatException("Expected an int but was " + value + " at " + getPath());
+        }
+        return (int) value;
+    }
+
+    @Override
+    public void skipValue() {
+        type();
+        if (reader.getState() == AbstractBsonReader.State.NAME) {
+            reader.readName();
+        }
+        reader.skipValue();
+    }
+
+    @Override
+    public void close() {
+        // No-op
+    }
+
+    @Override
+    public String getPath() {
+        try {
+            return "bson field " + reader.getCurrentName();
+        } catch (final BsonInvalidOperationException e) {
+            return "bson " + reader.getState();
+        }
+    }
+
+    @Override
+    public String getPreviousPath() {
+        return getPath();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " at " + getPath();
+    }
+}
@@ -0,0 +1,183 @@
+package wtf.casper.storageapi.serializer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import org.bson.BsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Writes the tokens Gson's type adapters produce straight to a {@link BsonWriter}, with the same bson types
+ * {@link org.bson.Document#parse(String)} would give the json.
+ */
+final class BsonValueWriter extends JsonWriter {
+
+    private static final TypeAdapter<JsonElement> TREE = new Gson().getAdapter(JsonElement.class);
+
+    private final BsonWriter writer;
+    // writes the first fields of the top level document, like its _id
+    private Consumer<BsonWriter> header;
+    private String pendingName;
+
+    BsonValueWriter(final BsonWriter writer, final Consumer<BsonWriter> header) {
+        super(Writer.nullWriter());
+        this.writer = writer;
+        this.header = header;
+    }
+
+    private void writeName() {
+        if (pendingName != null) {
+            writer.writeName(pendingName);
+            pendingName = null;
+        }
+    }
+
+    @Override
+    public JsonWriter beginArray() {
+        writeName();
+        writer.writeStartArray();
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() {
+        writer.writeEndArray();
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() {
+        writeName();
+        writer.writeStartDocument();
+        if (header != null) {
+            header.accept(writer);
+            header = null;
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() {
+        if (pendingName != null) {
+            throw new IllegalStateException("Name " + pendingName + " has no value");
+        }
+        writer.writeEndDocument();
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) {
+        Objects.requireNonNull(name, "name == null");
+        if (pendingName != null) {
+            throw new IllegalStateException("Name " + pendingName + " has no value");
+        }
+        pendingName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        writeName();
+        writer.writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter jsonValue(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        TREE.write(this, JsonParser.parseString(value));
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() {
+        if (pendingName != null && !getSerializeNulls()) {
+            pendingName = null;
+            return this;
+        }
+        writeName();
+        writer.writeNull();
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) {
+        writeName();
+        writer.writeBoolean(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) {
+        return value == null ? nullValue() : value(value.booleanValue());
+    }
+
+    @Override
+    public JsonWriter value(float value) {
+        return value((double) value);
+    }
+
+    @Override
+    public JsonWriter value(double value) {
+        writeName();
+        writer.writeDouble(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) {
+        writeName();
+        // parsed json numbers are int32 when they fit
+        if ((int) value == value) {
+            writer.writeInt32((int) value);
+        } else {
+            writer.writeInt64(value);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicInteger || value instanceof AtomicLong) {
+            return value(value.longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return value(value.doubleValue());
+        }
+
+        // BigDecimal, BigInteger and lazily parsed numbers become what their text parses to
+        final String text = value.toString();
+        try {
+            return value(Long.parseLong(text));
+        } catch (final NumberFormatException e) {
+            return value(Double.parseDouble(text));
+        }
+    }
+
+    @Override
+    public void flush() {
+        // No-op
+    }
+
+    @Override
+    public void close() {
+        // No-op
+    }
+}
@@ -0,0 +1,70 @@
+package wtf.casper.storageapi.serializer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializes values to json with Gson.
+ */
+public class GsonSerializer<V> implements Serializer<V> {
+
+    @Nullable
+    private final Gson gson;
+    private final Class<V> type;
+
+    /**
+     * Follows {@link StorageAPIConstants#getGson()}, so replacing it there also changes this serializer.
+     */
+    public GsonSerializer(final Class<V> type) {
+        this(null, type);
+    }
+
+    public GsonSerializer(@Nullable final Gson gson, final Class<V> type) {
+        this.gson = gson;
+        this.type = type;
+    }
+
+    private Gson gson() {
+        return gson == null ? StorageAPIConstants.getGson() : gson;
+    }
+
+    @Override
+    public boolean text() {
+        return true;
+    }
+
+    @Override
+    public byte[] serialize(V value) {
+        return serializeToString(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public V deserialize(byte[] data) {
+        return deserialize(new String(data, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String serializeToString(V value) {
+        return gson().toJson(value);
+    }
+
+    @Override
+    public V deserialize(String data) {
+        return gson().fromJson(data, type);
+    }
+
+    @Override
+    public JsonElement readTree(byte[] data) {
+        return JsonParser.parseString(new String(data, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public byte[] writeTree(JsonElement tree) {
+        return gson().toJson(tree).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,57 @@
+package wtf.casper.storageapi.serializer;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Turns values into the form a storage keeps them in, and back.
+ * <p>
+ * Text serializers produce json, which SQL storages keep in text columns so the database's json functions keep
+ * working. Binary serializers produce bytes, kept in BLOB columns and {@code .bin} files.
+ */
+public interface Serializer<V> {
+
+    /**
+     * @return a json serializer using {@link wtf.casper.storageapi.utils.StorageAPIConstants#getGson()}, the default of every storage.
+     */
+    static <V> Serializer<V> gson(final Class<V> type) {
+        return new GsonSerializer<>(type);
+    }
+
+    /**
+     * @return a compact binary serializer using the type adapters of {@link wtf.casper.storageapi.utils.StorageAPIConstants#getGson()}.
+     */
+    static <V> Serializer<V> binary(final Class<V> type) {
+        return new BinarySerializer<>(type);
+    }
+
+    byte[] serialize(V value);
+
+    V deserialize(byte[] data);
+
+    /**
+     * @return true if the serialized form is json text, so {@link #serializeToString(Object)} and
+     * {@link #deserialize(String)} can be used without converting to bytes.
+     */
+    default boolean text() {
+        return false;
+    }
+
+    default String serializeToString(final V value) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is not a text serializer");
+    }
+
+    default V deserialize(final String data) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is not a text serializer");
+    }
+
+    /**
+     * Reads serialized data as a json tree, used to rename fields without knowing the value class.
+     */
+    default JsonElement readTree(final byte[] data) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support json trees");
+    }
+
+    default byte[] writeTree(final JsonElement tree) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support json trees");
+    }
+}
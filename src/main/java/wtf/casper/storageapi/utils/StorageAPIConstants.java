@@ -13,21 +13,34 @@ import wtf.casper.storageapi.id.Transient;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ScheduledExecutorService;
 
 @Log
 public class StorageAPIConstants {
     public static final ObjenesisStd OBJENESIS_STD = new ObjenesisStd(true);
 
-    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
-    // package name so it gets relocated properly & turns to a different named threadpool
-    public static final Executor DB_THREAD_POOL = Executors.newCachedThreadPool(r -> {
+    // shared default for storages that aren't given their own executor, sql storages default to one sized for their pool
+    public static final StorageExecutor DB_EXECUTOR = StorageExecutor.cached("DB-Thread");
+    /**
+     * @deprecated use {@link #DB_EXECUTOR}, which also reports its queue depth and active threads.
+     */
+    @Deprecated
+    public static final Executor DB_THREAD_POOL = DB_EXECUTOR;
+    // bounded pool for file based storages so disk reads/writes don't compete with database calls
+    public static final StorageExecutor FILE_IO_POOL = StorageExecutor.fileIO("File-IO-Thread");
+
+    public static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
         Thread thread = new Thread(r);
         thread.setDaemon(true);
-        thread.setName("wtf.casper.storageapi DB-Thread-" + THREAD_COUNTER.incrementAndGet());
+        thread.setName("wtf.casper.storageapi Scheduler-Thread");
         return thread;
     });
 
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    // how often a statement is retried while sqlite reports the database as locked, waiting a bit longer every time
+    public static final int BUSY_RETRIES = 5;
+    public static final long BUSY_RETRY_DELAY_MS = 50;
+
     @Getter
     private final static JsonWriterSettings jsonWriterSettings = JsonWriterSettings.builder()
             .int64Converter((value, writer) -> writer.writeNumber(value.toString()))
@@ -0,0 +1,149 @@
+package wtf.casper.storageapi.utils;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The executor a storage runs its operations on, keeping track of how many tasks are waiting and running.
+ * Use the presets to bound the amount of threads competing for the same backend.
+ */
+@Log
+public class StorageExecutor implements Executor {
+
+    @Getter
+    private final String name;
+    private final ExecutorService delegate;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+
+    public StorageExecutor(final String name, final ExecutorService delegate) {
+        this.name = name;
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return an executor that starts a new thread whenever no idle thread is available. This is unbounded.
+     */
+    public static StorageExecutor cached(final String name) {
+        return new StorageExecutor(name, Executors.newCachedThreadPool(threadFactory(name)));
+    }
+
+    /**
+     * @return an executor with a fixed amount of threads, extra tasks wait in a queue.
+     */
+    public static StorageExecutor fixed(final String name, final int threads) {
+        return new StorageExecutor(name, Executors.newFixedThreadPool(threads, threadFactory(name)));
+    }
+
+    /**
+     * @return an executor with as many threads as the data source has connections, so no thread waits on the pool.
+     */
+    public static StorageExecutor forDataSource(final String name, final HikariDataSource dataSource) {
+        final int threads = dataSource.getMaximumPoolSize();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory(name));
+        // every storage has its own, so idle threads stop instead of piling up for storages that are rarely used or closed
+        executor.allowCoreThreadTimeOut(true);
+        return new StorageExecutor(name, executor);
+    }
+
+    /**
+     * @return an executor sized for blocking file reads and writes.
+     */
+    public static StorageExecutor fileIO(final String name) {
+        return fixed(name, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @return an executor that runs every task on a new virtual thread on Java 21+,
+     * or a {@link #cached(String)} executor on older versions.
+     */
+    public static StorageExecutor virtual(final String name) {
+        try {
+            final ExecutorService service = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new StorageExecutor(name, service);
+        } catch (final ReflectiveOperationException e) {
+            log.warning("Virtual threads require Java 21+, falling back to a cached thread pool for " + name);
+            return cached(name);
+        }
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        final AtomicInteger counter = new AtomicInteger(0);
+        // package name so it gets relocated properly & turns to a different named threadpool
+        return r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setName("wtf.casper.storageapi " + name + "-" + counter.incrementAndGet());
+            return thread;
+        };
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        queued.incrementAndGet();
+        try {
+            delegate.execute(() -> {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                try {
+                    command.run();
+                } finally {
+                    active.decrementAndGet();
+                    completed.increment();
+                }
+            });
+        } catch (final RuntimeException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the amount of tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * @return the amount of threads currently running a task.
+     */
+    public int getActiveThreads() {
+        return active.get();
+    }
+
+    /**
+     * @return the total amount of tasks that finished running.
+     */
+    public long getCompletedTasks() {
+        return completed.sum();
+    }
+
+    /**
+     * Stops accepting new tasks, already submitted tasks still run.
+     */
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    /**
+     * Waits for the submitted tasks to finish after {@link #shutdown()}.
+     *
+     * @return true if every task finished, false if the timeout passed first.
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
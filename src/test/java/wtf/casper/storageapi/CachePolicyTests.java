@@ -0,0 +1,82 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.cache.Cache;
+import wtf.casper.storageapi.cache.CachePolicy;
+import wtf.casper.storageapi.cache.CaffeineCache;
+import wtf.casper.storageapi.cache.MapCache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class CachePolicyTests {
+
+    @Test
+    public void testCaffeineMaximumSize() {
+        Cache<Integer, String> cache = CachePolicy.builder()
+                .maximumSize(10)
+                .expireAfterAccess(1, TimeUnit.MINUTES)
+                .build()
+                .build(key -> CompletableFuture.completedFuture(null));
+
+        assertTrue(cache instanceof CaffeineCache);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "value " + i);
+        }
+        cache.cleanUp();
+        assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    public void testMapEvictsLeastRecentlyUsed() {
+        Cache<Integer, String> cache = CachePolicy.builder()
+                .provider(CachePolicy.Provider.MAP)
+                .maximumSize(2)
+                .build()
+                .build(key -> CompletableFuture.completedFuture(null));
+
+        assertTrue(cache instanceof MapCache);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.getIfPresent(1);
+        cache.put(3, "three");
+        assertEquals("one", cache.getIfPresent(1));
+        assertNull(cache.getIfPresent(2));
+    }
+
+    @Test
+    public void testCallerSuppliedWeigher() {
+        Cache<Integer, String> cache = CachePolicy.builder()
+                .maximumWeight(100)
+                .weigher(String::length)
+                .build()
+                .build(key -> CompletableFuture.completedFuture(null), value -> {
+                    throw new AssertionError("the policy weigher should be used");
+                });
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "0123456789");
+        }
+        cache.cleanUp();
+        assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    public void testUnsupportedOptions() {
+        assertThrows(IllegalStateException.class, () -> CachePolicy.builder().maximumSize(1).maximumWeight(1).build());
+        assertThrows(IllegalStateException.class, () -> CachePolicy.builder()
+                .maximumWeight(1)
+                .build()
+                .build(key -> CompletableFuture.completedFuture(null)));
+        assertThrows(IllegalStateException.class, () -> CachePolicy.builder()
+                .provider(CachePolicy.Provider.GOOGLE)
+                .refreshAfterWrite(1, TimeUnit.MINUTES)
+                .build()
+                .build(key -> CompletableFuture.completedFuture(null)));
+    }
+}
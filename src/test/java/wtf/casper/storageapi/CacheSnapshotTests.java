@@ -0,0 +1,80 @@
+package wtf.casper.storageapi;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.cache.CacheSnapshot;
+import wtf.casper.storageapi.cache.CaffeineCache;
+import wtf.casper.storageapi.impl.direct.kvstorage.DirectJsonKVStorage;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CacheSnapshotTests {
+
+    @Test
+    public void testRestoreAndRevalidate() throws InterruptedException {
+        File folder = new File("./src/test/resources/snapshot");
+        File file = new File("./src/test/resources/snapshot.bin");
+        UUID id = UUID.randomUUID();
+
+        try {
+            DirectJsonKVStorage<UUID, TestObject> first = new DirectJsonKVStorage<>(UUID.class, TestObject.class, folder, TestObject::new);
+            assertEquals(0, first.snapshot(file, 1, TimeUnit.HOURS));
+            first.save(new TestObject(id, "snapshot", 1, null)).join();
+            first.close().join();
+            assertTrue(file.exists());
+
+            // another writer changes the value while the snapshot is on disk
+            DirectJsonKVStorage<UUID, TestObject> other = new DirectJsonKVStorage<>(UUID.class, TestObject.class, folder, TestObject::new);
+            other.save(new TestObject(id, "backend", 2, null)).join();
+
+            DirectJsonKVStorage<UUID, TestObject> second = new DirectJsonKVStorage<>(UUID.class, TestObject.class, folder, TestObject::new);
+            assertEquals(1, second.snapshot(file, 1, TimeUnit.HOURS));
+            assertEquals("snapshot", second.get(id).join().getName());
+
+            for (int i = 0; i < 100 && !"backend".equals(second.cache().getIfPresent(id).getName()); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals("backend", second.get(id).join().getName());
+
+            second.deleteAll().join();
+            second.close().join();
+        } finally {
+            file.delete();
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void testIgnoresDamagedSnapshot() throws Exception {
+        File file = new File("./src/test/resources/snapshot-damaged.bin");
+        try {
+            CaffeineCache<UUID, TestObject> cache = new CaffeineCache<>(Caffeine.newBuilder().build());
+            for (int i = 0; i < 10; i++) {
+                TestObject testObject = new TestObject(UUID.randomUUID(), "Test " + i, i, null);
+                cache.put(testObject.getId(), testObject);
+            }
+
+            CacheSnapshot<UUID, TestObject> snapshot = new CacheSnapshot<>(file, UUID.class, TestObject.class, 1, TimeUnit.HOURS);
+            assertEquals(10, snapshot.write(cache));
+            assertEquals(10, snapshot.read().size());
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() / 2);
+            }
+            assertTrue(snapshot.read().size() < 10);
+
+            CacheSnapshot<UUID, TestObject> expired = new CacheSnapshot<>(file, UUID.class, TestObject.class, 0, TimeUnit.MILLISECONDS);
+            snapshot.write(cache);
+            Thread.sleep(5);
+            assertEquals(0, expired.read().size());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.direct.kvstorage.DirectJsonKVStorage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CacheWarmerTests {
+
+    @Test
+    public void testHotKeysArePreloaded() {
+        File folder = new File("./src/test/resources/warmup");
+        File hotKeys = new File("./src/test/resources/warmup-hot-keys.json");
+        List<UUID> ids = new ArrayList<>();
+
+        try {
+            DirectJsonKVStorage<UUID, TestObject> first = new DirectJsonKVStorage<>(UUID.class, TestObject.class, folder, TestObject::new);
+            assertEquals(0, (int) first.hotKeys(hotKeys, 10, 2).join());
+            for (int i = 0; i < 5; i++) {
+                TestObject testObject = new TestObject(UUID.randomUUID(), "Test " + i, i, null);
+                ids.add(testObject.getId());
+                first.save(testObject).join();
+            }
+            first.close().join();
+
+            DirectJsonKVStorage<UUID, TestObject> second = new DirectJsonKVStorage<>(UUID.class, TestObject.class, folder, TestObject::new);
+            assertNull(second.cache().getIfPresent(ids.get(0)));
+            assertEquals(5, (int) second.hotKeys(hotKeys, 10, 2).join());
+            for (UUID id : ids) {
+                assertNotNull(second.cache().getIfPresent(id));
+            }
+            second.deleteAll().join();
+            second.close().join();
+        } finally {
+            hotKeys.delete();
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void testPreloadReportsProgress() {
+        File folder = new File("./src/test/resources/warmup");
+        DirectJsonKVStorage<UUID, TestObject> storage = new DirectJsonKVStorage<>(UUID.class, TestObject.class, folder, TestObject::new);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TestObject testObject = new TestObject(UUID.randomUUID(), "Test " + i, i, null);
+            ids.add(testObject.getId());
+            storage.save(testObject).join();
+        }
+        ids.add(UUID.randomUUID());
+        storage.cache().invalidateAll();
+
+        AtomicInteger handled = new AtomicInteger();
+        assertEquals(3, (int) storage.preload(ids, 4, (done, total) -> {
+            assertEquals(4, (int) total);
+            handled.set(done);
+        }).join());
+        assertEquals(4, handled.get());
+        assertNotNull(storage.cache().getIfPresent(ids.get(0)));
+
+        storage.deleteAll().join();
+        storage.close().join();
+        folder.delete();
+    }
+}
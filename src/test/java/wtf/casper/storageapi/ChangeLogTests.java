@@ -0,0 +1,89 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.direct.kvstorage.DirectSQLiteKVStorage;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ChangeLogTests {
+
+    @Test
+    public void testInvalidatesOtherNodes() {
+        File file = new File("src/test/resources/changelog.db");
+        DirectSQLiteKVStorage<UUID, TestObject> first = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "data", TestObject::new);
+        DirectSQLiteKVStorage<UUID, TestObject> second = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "data", TestObject::new);
+        first.changeLog(1, TimeUnit.HOURS);
+        second.changeLog(1, TimeUnit.HOURS);
+
+        try {
+            UUID id = UUID.randomUUID();
+            first.save(new TestObject(id, "first", 1, null)).join();
+            assertEquals("first", second.get(id).join().getName());
+
+            first.save(new TestObject(id, "second", 2, null)).join();
+            // still served from the cache until the change log is polled
+            assertEquals("first", second.get(id).join().getName());
+            assertEquals(0, first.changeLog().poll());
+            second.changeLog().poll();
+            assertEquals("second", second.get(id).join().getName());
+
+            second.deleteAll().join();
+            first.changeLog().poll();
+            assertNull(first.cache().getIfPresent(id));
+        } finally {
+            first.close().join();
+            second.close().join();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLateCommitIsNotMissed() {
+        File file = new File("src/test/resources/changelog-gaps.db");
+        DirectSQLiteKVStorage<UUID, TestObject> storage = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "data", TestObject::new);
+        storage.changeLog(1, TimeUnit.HOURS);
+
+        try {
+            UUID early = UUID.randomUUID();
+            UUID late = UUID.randomUUID();
+            storage.save(new TestObject(early, "early", 1, null)).join();
+            storage.save(new TestObject(late, "late", 2, null)).join();
+            storage.changeLog().poll();
+
+            AtomicLong version = new AtomicLong();
+            storage.executeQuery("SELECT MAX(version) FROM data_changes;", statement -> {
+            }, resultSet -> {
+                resultSet.next();
+                version.set(resultSet.getLong(1));
+            });
+
+            // another process commits version + 2 before version + 1
+            String insert = "INSERT INTO data_changes (version, id, node, created) VALUES (?, ?, 'other', 0);";
+            storage.execute(insert, statement -> {
+                statement.setLong(1, version.get() + 2);
+                statement.setString(2, early.toString());
+            });
+            assertEquals(1, storage.changeLog().poll());
+            assertNull(storage.cache().getIfPresent(early));
+            assertNotNull(storage.cache().getIfPresent(late));
+
+            storage.execute(insert, statement -> {
+                statement.setLong(1, version.get() + 1);
+                statement.setString(2, late.toString());
+            });
+            assertEquals(1, storage.changeLog().poll());
+            assertNull(storage.cache().getIfPresent(late));
+            assertEquals(0, storage.changeLog().poll());
+        } finally {
+            storage.close().join();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.cache.ClockCache;
+import wtf.casper.storageapi.cache.MapCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClockCacheTests {
+
+    @Test
+    public void testReferencedEntriesSurviveScan() {
+        ClockCache<Integer, String> cache = new ClockCache<>(10);
+        cache.put(0, "hot");
+        for (int i = 1; i < 100; i++) {
+            cache.getIfPresent(0);
+            cache.put(i, "cold " + i);
+        }
+
+        assertEquals(10, cache.size());
+        assertEquals("hot", cache.getIfPresent(0));
+        assertNull(cache.getIfPresent(1));
+        assertEquals(90, cache.stats().getEvictionCount());
+    }
+
+    @Test
+    public void testConcurrentWritesStayBounded() {
+        ClockCache<Integer, Integer> cache = new ClockCache<>(100);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    int key = ThreadLocalRandom.current().nextInt(1_000);
+                    if (i % 10 == 0) {
+                        cache.invalidate(key);
+                    } else {
+                        cache.put(key, key);
+                        cache.getIfPresent(key);
+                    }
+                }
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+
+        cache.cleanUp();
+        assertTrue(cache.size() <= 100);
+        cache.asMap().forEach((key, value) -> assertEquals(key, value));
+    }
+
+    @Test
+    public void testMapCacheFallbackKeepsEntries() {
+        MapCache<UUID, String> cache = new MapCache<>(null);
+        UUID key = UUID.randomUUID();
+        cache.put(key, "value");
+        System.gc();
+        assertNotNull(cache.getIfPresent(UUID.fromString(key.toString())));
+    }
+}
@@ -0,0 +1,112 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.cache.DirtyTracker;
+import wtf.casper.storageapi.impl.direct.kvstorage.DirectJsonKVStorage;
+import wtf.casper.storageapi.impl.direct.kvstorage.DirectSQLiteKVStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class DirtyTrackerTests {
+
+    @Test
+    public void testJsonSkipsUnchangedSaves() throws IOException {
+        File folder = new File("./src/test/resources/dirty");
+        DirectJsonKVStorage<UUID, TestObject> storage = new DirectJsonKVStorage<>(UUID.class, TestObject.class, folder, TestObject::new);
+        UUID id = UUID.randomUUID();
+        File file = new File(folder, id + ".json");
+
+        try {
+            storage.save(new TestObject(id, "first", 1, null)).join();
+            file.setLastModified(0);
+
+            storage.save(new TestObject(id, "first", 1, null)).join();
+            storage.write().join();
+            assertEquals(0, file.lastModified());
+            assertEquals(2, storage.dirtyTracker().getSkipped());
+
+            storage.save(new TestObject(id, "second", 1, null)).join();
+            assertTrue(Files.readString(file.toPath()).contains("second"));
+            assertEquals(2, storage.dirtyTracker().getChanged());
+        } finally {
+            storage.deleteAll().join();
+            storage.close().join();
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void testSqlSkipsUnchangedSaves() {
+        File file = new File("./src/test/resources/dirty.db");
+        DirectSQLiteKVStorage<UUID, TestObject> storage = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "dirty", TestObject::new);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        try {
+            storage.saveAll(List.of(new TestObject(first, "first", 1, null), new TestObject(second, "second", 2, null))).join();
+            DirtyTracker<UUID> tracker = storage.dirtyTracker();
+            assertEquals(2, tracker.getChanged());
+
+            storage.save(new TestObject(first, "first", 1, null)).join();
+            storage.saveAll(List.of(new TestObject(first, "first", 1, null), new TestObject(second, "changed", 2, null))).join();
+            assertEquals(2, tracker.getSkipped());
+            assertEquals(3, tracker.getChanged());
+
+            // a removed key is written again even with the same value
+            storage.remove(new TestObject(first)).join();
+            storage.save(new TestObject(first, "first", 1, null)).join();
+            storage.cache().invalidateAll();
+            assertEquals("first", storage.get(first).join().getName());
+            assertEquals("changed", storage.get(second).join().getName());
+        } finally {
+            storage.close().join();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFailedBatchIsReported() {
+        File file = new File("./src/test/resources/failed.db");
+        DirectSQLiteKVStorage<UUID, TestObject> storage = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "failed", TestObject::new);
+
+        try {
+            storage.execute("DROP TABLE failed;");
+            CompletionException exception = assertThrows(CompletionException.class,
+                    () -> storage.saveAll(List.of(new TestObject(UUID.randomUUID(), "first", 1, null))).join());
+            assertTrue(exception.getCause().getCause() instanceof SQLException);
+            // nothing reached the database, so the value must not be skipped as unchanged next time
+            assertEquals(0, storage.dirtyTracker().getSkipped());
+        } finally {
+            storage.close().join();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFailedWritesAreReported() {
+        File file = new File("./src/test/resources/failed-remove.db");
+        DirectSQLiteKVStorage<UUID, TestObject> storage = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "failed_remove", TestObject::new);
+        TestObject object = new TestObject(UUID.randomUUID(), "first", 1, null);
+
+        try {
+            storage.save(object).join();
+            storage.execute("DROP TABLE failed_remove;");
+            assertThrows(CompletionException.class, () -> storage.remove(object).join());
+            assertThrows(CompletionException.class, () -> storage.removeKeys(List.of(object.getId())).join());
+            assertThrows(CompletionException.class, () -> storage.save(new TestObject(object.getId(), "second", 2, null)).join());
+        } finally {
+            storage.close().join();
+            file.delete();
+        }
+    }
+}
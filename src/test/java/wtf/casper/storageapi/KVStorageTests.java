@@ -4,15 +4,24 @@ import lombok.extern.java.Log;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import wtf.casper.storageapi.impl.direct.kvstorage.*;
+import wtf.casper.storageapi.misc.Page;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @Log
 public class KVStorageTests {
@@ -41,6 +50,15 @@ public class KVStorageTests {
     }
 
     public static void init(Properties properties) {
+        File dataFolder;
+        try {
+            // json files go to a temporary folder so test runs never leave data in the source tree
+            dataFolder = Files.createTempDirectory("storageapi-data").toFile();
+            dataFolder.deleteOnExit();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
         StorageType type = StorageType.valueOf((String) properties.get("storage.type"));
         credentials = Credentials.of(
                 type,
@@ -60,7 +78,7 @@ public class KVStorageTests {
             case SQLITE -> storage = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, new File("src/test/resources/data.db"), "data", TestObject::new);
             case SQL -> storage = new DirectSQLKVStorage<>(UUID.class, TestObject.class, credentials, TestObject::new);
             case MARIADB -> storage = new DirectMariaDBKVStorage<>(UUID.class, TestObject.class, credentials, TestObject::new);
-            case JSON -> storage = new DirectJsonKVStorage<>(UUID.class, TestObject.class, new File("./src/test/resources/data"), TestObject::new);
+            case JSON -> storage = new DirectJsonKVStorage<>(UUID.class, TestObject.class, dataFolder, TestObject::new);
             default -> throw new IllegalStateException("Unexpected value: " + type);
         }
 
@@ -69,7 +87,7 @@ public class KVStorageTests {
             case SQLITE -> storageOther = new DirectSQLiteKVStorage<>(UUID.class, TestObjectOther.class, new File("src/test/resources/data.db"), "data", TestObjectOther::new);
             case SQL -> storageOther = new DirectSQLKVStorage<>(UUID.class, TestObjectOther.class, credentials, TestObjectOther::new);
             case MARIADB -> storageOther = new DirectMariaDBKVStorage<>(UUID.class, TestObjectOther.class, credentials, TestObjectOther::new);
-            case JSON -> storageOther = new DirectJsonKVStorage<>(UUID.class, TestObjectOther.class, new File("./src/test/resources/data"), TestObjectOther::new);
+            case JSON -> storageOther = new DirectJsonKVStorage<>(UUID.class, TestObjectOther.class, dataFolder, TestObjectOther::new);
             default -> throw new IllegalStateException("Unexpected value: " + type);
         }
 
@@ -188,6 +206,60 @@ public class KVStorageTests {
         log.fine(" --- Total data test passed!");
     }
 
+    @Test
+    public void testStream() {
+        TestObject testObject = new TestObject(
+                UUID.fromString("00000000-0000-0000-0000-000000000026"), "Test", 100,
+                new TestObjectData("1234 Test Street", "Test Employer", "test@test", "123-456-7890",
+                        100, new TestObjectBalance(100, "USD")
+                )
+        );
+
+        storage.save(testObject).join();
+        try (Stream<TestObject> stream = storage.stream()) {
+            assertTrue(stream.anyMatch(testObject::equals));
+        }
+
+        AtomicInteger matches = new AtomicInteger();
+        storage.forEach(value -> {
+            if (value.equals(testObject)) {
+                matches.incrementAndGet();
+            }
+        }).join();
+        assertEquals(1, matches.get());
+
+        storage.remove(testObject).join();
+    }
+
+    @Test
+    public void testScan() {
+        List<TestObject> testObjects = List.of(
+                new TestObject(UUID.fromString("00000000-0000-0000-0000-000000000027"), "Test", 100, null),
+                new TestObject(UUID.fromString("00000000-0000-0000-0000-000000000028"), "Test", 101, null),
+                new TestObject(UUID.fromString("00000000-0000-0000-0000-000000000029"), "Test", 102, null)
+        );
+        storage.saveAll(testObjects).join();
+
+        List<UUID> scanned = new ArrayList<>();
+        Page<UUID, TestObject> page = storage.scan(null, 2).join();
+        while (true) {
+            assertTrue(page.getValues().size() <= 2);
+            page.getValues().forEach(value -> scanned.add(value.getId()));
+            if (!page.hasNext()) {
+                break;
+            }
+            page = storage.scan(page.getNextKey(), 2).join();
+        }
+
+        try (Stream<TestObject> stream = storage.stream()) {
+            assertEquals(stream.count(), scanned.size());
+        }
+        assertEquals(scanned.stream().sorted(Comparator.comparing(UUID::toString)).toList(), scanned);
+        testObjects.forEach(testObject -> assertTrue(scanned.contains(testObject.getId())));
+
+        storage.removeAll(testObjects).join();
+    }
+
     @Test
     public void testSave() {
         TestObject testObject = new TestObject(
@@ -236,6 +308,104 @@ public class KVStorageTests {
         assertEquals(null, storage.get(testObject.getId()).join());
     }
 
+    @Test
+    public void testGetAll() {
+        TestObject first = new TestObject(
+                UUID.fromString("00000000-0000-0000-0000-000000000020"), "Test", 100,
+                new TestObjectData("1234 Test Street", "Test Employer", "test@test", "123-456-7890",
+                        100, new TestObjectBalance(100, "USD")
+                )
+        );
+        TestObject second = new TestObject(
+                UUID.fromString("00000000-0000-0000-0000-000000000021"), "Test", 101,
+                new TestObjectData("1234 Test Street", "Test Employer", "test@test", "123-456-7890",
+                        101, new TestObjectBalance(100, "USD")
+                )
+        );
+        UUID missing = UUID.fromString("00000000-0000-0000-0000-000000000022");
+
+        storage.saveAll(List.of(first, second)).join();
+        Map<UUID, TestObject> values = storage.getAll(List.of(first.getId(), second.getId(), missing)).join();
+        assertEquals(2, values.size());
+        assertEquals(first, values.get(first.getId()));
+        assertEquals(second, values.get(second.getId()));
+
+        storage.remove(first).join();
+        storage.remove(second).join();
+    }
+
+    @Test
+    public void testRemoveAll() {
+        TestObject first = new TestObject(
+                UUID.fromString("00000000-0000-0000-0000-000000000023"), "Test", 100,
+                new TestObjectData("1234 Test Street", "Test Employer", "test@test", "123-456-7890",
+                        100, new TestObjectBalance(100, "USD")
+                )
+        );
+        TestObject second = new TestObject(
+                UUID.fromString("00000000-0000-0000-0000-000000000024"), "Test", 101,
+                new TestObjectData("1234 Test Street", "Test Employer", "test@test", "123-456-7890",
+                        101, new TestObjectBalance(100, "USD")
+                )
+        );
+        TestObject third = new TestObject(
+                UUID.fromString("00000000-0000-0000-0000-000000000025"), "Test", 102,
+                new TestObjectData("1234 Test Street", "Test Employer", "test@test", "123-456-7890",
+                        102, new TestObjectBalance(100, "USD")
+                )
+        );
+
+        storage.saveAll(List.of(first, second, third)).join();
+        storage.removeKeys(List.of(first.getId())).join();
+        assertEquals(null, storage.get(first.getId()).join());
+        assertEquals(second, storage.get(second.getId()).join());
+
+        storage.removeAll(List.of(second, third)).join();
+        assertEquals(0, storage.getAll(List.of(first.getId(), second.getId(), third.getId())).join().size());
+    }
+
+    @Test
+    public void testWriteSkipsUnchanged() {
+        TestObject testObject = new TestObject(
+                UUID.fromString("00000000-0000-0000-0000-000000000030"), "Test", 100,
+                new TestObjectData("1234 Test Street", "Test Employer", "test@test", "123-456-7890",
+                        100, new TestObjectBalance(100, "USD")
+                )
+        );
+
+        storage.save(testObject).join();
+        storage.getAll(List.of(testObject.getId())).join();
+        storage.write().join();
+
+        long changed = storage.dirtyTracker().getChanged();
+        long skipped = storage.dirtyTracker().getSkipped();
+        storage.write().join();
+        assertEquals(changed, storage.dirtyTracker().getChanged());
+        assertTrue(storage.dirtyTracker().getSkipped() > skipped);
+
+        storage.remove(testObject).join();
+    }
+
+    @Test
+    public void testStats() {
+        TestObject testObject = new TestObject(
+                UUID.fromString("00000000-0000-0000-0000-000000000031"), "Test", 100,
+                new TestObjectData("1234 Test Street", "Test Employer", "test@test", "123-456-7890",
+                        100, new TestObjectBalance(100, "USD")
+                )
+        );
+
+        storage.save(testObject).join();
+        long hits = storage.stats().getHitCount();
+        storage.get(testObject.getId()).join();
+        assertTrue(storage.stats().getHitCount() > hits);
+
+        storage.remove(testObject).join();
+        long loads = storage.stats().getLoadSuccessCount();
+        storage.get(testObject.getId()).join();
+        assertEquals(loads + 1, storage.stats().getLoadSuccessCount());
+    }
+
     @Test
     public void testDeleteAll() {
         storage.deleteAll().join();
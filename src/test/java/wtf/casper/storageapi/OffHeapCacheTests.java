@@ -0,0 +1,71 @@
+package wtf.casper.storageapi;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.cache.CaffeineCache;
+import wtf.casper.storageapi.cache.OffHeapCache;
+import wtf.casper.storageapi.cache.TieredCache;
+import wtf.casper.storageapi.serializer.Serializer;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapCacheTests {
+
+    @Test
+    public void testRoundTrip() {
+        OffHeapCache<UUID, TestObject> cache = new OffHeapCache<>(TestObject.class, 1024 * 1024);
+        TestObject testObject = new TestObject(UUID.randomUUID(), "Test", 100, null);
+
+        cache.put(testObject.getId(), testObject);
+        TestObject read = cache.getIfPresent(testObject.getId());
+        assertEquals(testObject, read);
+        assertNotSame(testObject, read);
+        assertTrue(cache.getOffHeapBytes() > 0);
+        assertEquals(1, cache.getDeserializations());
+
+        cache.invalidate(testObject.getId());
+        assertNull(cache.getIfPresent(testObject.getId()));
+    }
+
+    @Test
+    public void testMissFallsThroughToSecondTier() {
+        CaffeineCache<UUID, TestObject> first = new CaffeineCache<>(Caffeine.newBuilder().build());
+        OffHeapCache<UUID, TestObject> second = new OffHeapCache<>(TestObject.class, 1024 * 1024);
+        TieredCache<UUID, TestObject> cache = new TieredCache<>(first, second);
+        TestObject testObject = new TestObject(UUID.randomUUID(), "Test", 100, null);
+
+        cache.put(testObject.getId(), testObject);
+        first.invalidate(testObject.getId());
+
+        TestObject promoted = cache.getIfPresent(testObject.getId());
+        assertEquals(testObject, promoted);
+        assertSame(promoted, first.getIfPresent(testObject.getId()));
+    }
+
+    @Test
+    public void testChurnReusesReservedMemory() {
+        long maximumBytes = 64 * 1024;
+        OffHeapCache<UUID, TestObject> cache = new OffHeapCache<>(Serializer.gson(TestObject.class), maximumBytes);
+        UUID hot = UUID.randomUUID();
+
+        TestObject last = null;
+        for (int i = 0; i < 5_000; i++) {
+            cache.put(UUID.randomUUID(), new TestObject(UUID.randomUUID(), "Test" + i, i, null));
+            last = new TestObject(hot, "Hot" + i, i, null);
+            cache.put(hot, last);
+        }
+
+        assertTrue(cache.getReservedBytes() <= maximumBytes);
+        assertTrue(cache.getOffHeapBytes() <= maximumBytes);
+        assertEquals(last, cache.getIfPresent(hot));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.getOffHeapBytes());
+    }
+}
@@ -0,0 +1,150 @@
+package wtf.casper.storageapi;
+
+import lombok.Getter;
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.cache.IntKeyCache;
+import wtf.casper.storageapi.cache.LongKeyCache;
+import wtf.casper.storageapi.id.Id;
+import wtf.casper.storageapi.impl.direct.kvstorage.DirectSQLiteKVStorage;
+import wtf.casper.storageapi.misc.Page;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrimitiveKeyTests {
+
+    @Test
+    public void testLongKeyCacheMatchesHashMap() {
+        LongKeyCache<String> cache = new LongKeyCache<>();
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // a small key range so removals often shift colliding entries
+            long key = random.nextInt(2_000) * 1024L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), cache.remove(key));
+            } else {
+                String value = "value " + i;
+                assertEquals(expected.get(key), cache.get(key));
+                expected.put(key, value);
+                cache.put(key, value);
+            }
+        }
+
+        assertEquals(expected.size(), cache.size());
+        assertEquals(expected, cache.asMap());
+        cache.invalidateAll();
+        assertNull(cache.get(1024L));
+    }
+
+    @Test
+    public void testIntKeyCache() {
+        IntKeyCache<String> cache = new IntKeyCache<>(4);
+        for (int i = -50; i < 50; i++) {
+            cache.put(i, "value " + i);
+        }
+        assertEquals(100, cache.size());
+        assertEquals("value -7", cache.get(-7));
+        assertEquals("value -7", cache.putIfAbsent(-7, "other"));
+        cache.invalidate(Integer.valueOf(-7));
+        assertTrue(!cache.contains(-7));
+        assertEquals("value 49", cache.getIfPresent(49));
+    }
+
+    @Test
+    public void testBoundedKeyCacheKeepsHotKeys() {
+        LongKeyCache<String> cache = new LongKeyCache<>(16, 100);
+        cache.put(-1L, "hot");
+        for (long i = 0; i < 10_000; i++) {
+            cache.put(i, "value " + i);
+            assertEquals("hot", cache.get(-1L));
+        }
+
+        assertEquals(100, cache.size());
+        assertEquals(10_000 - 99, cache.stats().getEvictionCount());
+        assertEquals("value 9999", cache.get(9_999L));
+    }
+
+    @Test
+    public void testNumericSqlIds() {
+        File file = new File("src/test/resources/numeric.db");
+        DirectSQLiteKVStorage<Long, NumericObject> storage = new DirectSQLiteKVStorage<>(Long.class, NumericObject.class, file, "numeric", id -> new NumericObject(id, ""));
+        storage.cache(new LongKeyCache<>());
+
+        try {
+            for (long id : new long[]{9, 10, 100, 2}) {
+                storage.save(new NumericObject(id, "name " + id)).join();
+            }
+            storage.cache().invalidateAll();
+
+            assertEquals("name 10", storage.get(10L).join().getName());
+            assertEquals(2, storage.getAll(List.of(2L, 100L, 5L)).join().size());
+
+            // numeric order, a string column would sort 10 and 100 before 2
+            Page<Long, NumericObject> page = storage.scan(null, 10).join();
+            assertEquals(List.of(2L, 9L, 10L, 100L), page.getValues().stream().map(NumericObject::getId).collect(Collectors.toList()));
+
+            storage.removeKeys(List.of(9L)).join();
+            assertNull(storage.get(9L).join());
+        } finally {
+            storage.close().join();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLegacyTextSqlIds() throws SQLException {
+        File file = new File("src/test/resources/legacy.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE legacy (id VARCHAR(255) NOT NULL PRIMARY KEY, json TEXT NOT NULL);");
+            statement.execute("INSERT INTO legacy (id, json) VALUES ('10', '{\"id\":10,\"name\":\"name 10\"}');");
+        }
+        DirectSQLiteKVStorage<Long, NumericObject> storage = new DirectSQLiteKVStorage<>(Long.class, NumericObject.class, file, "legacy", id -> new NumericObject(id, ""));
+
+        try {
+            assertFalse(storage.numericId());
+            assertEquals("name 10", storage.get(10L).join().getName());
+
+            for (long id : new long[]{9, 100, 2}) {
+                storage.save(new NumericObject(id, "name " + id)).join();
+            }
+            storage.cache().invalidateAll();
+            assertEquals("name 100", storage.get(100L).join().getName());
+
+            // the ids are compared as the column stores them
+            Page<Long, NumericObject> page = storage.scan(null, 2).join();
+            assertEquals(List.of(10L, 100L), page.getValues().stream().map(NumericObject::getId).collect(Collectors.toList()));
+            page = storage.scan(page.getNextKey(), 10).join();
+            assertEquals(List.of(2L, 9L), page.getValues().stream().map(NumericObject::getId).collect(Collectors.toList()));
+        } finally {
+            storage.close().join();
+            file.delete();
+        }
+    }
+
+    @Getter
+    public static class NumericObject {
+        @Id
+        private final long id;
+        private final String name;
+
+        public NumericObject(final long id, final String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+}
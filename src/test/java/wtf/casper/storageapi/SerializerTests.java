@@ -0,0 +1,168 @@
+package wtf.casper.storageapi;
+
+import com.google.gson.Gson;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.id.Transient;
+import wtf.casper.storageapi.impl.direct.kvstorage.DirectJsonKVStorage;
+import wtf.casper.storageapi.impl.direct.kvstorage.DirectSQLiteKVStorage;
+import wtf.casper.storageapi.serializer.BsonSerializer;
+import wtf.casper.storageapi.serializer.Serializer;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class SerializerTests {
+
+    private static TestObject object() {
+        return new TestObject(UUID.randomUUID(), "Casper", 21,
+                new TestObjectData("123 Fake Street", "Walmart", "test@test.com", "123-456-7890", 21, new TestObjectBalance(-15, "USD")));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        Serializer<TestObject> serializer = Serializer.binary(TestObject.class);
+        TestObject object = object();
+
+        byte[] data = serializer.serialize(object);
+        assertEquals(object, serializer.deserialize(data));
+        assertTrue(data.length < StorageAPIConstants.getGson().toJson(object).getBytes(StandardCharsets.UTF_8).length);
+
+        assertEquals(StorageAPIConstants.getGson().toJsonTree(object), serializer.readTree(data));
+        assertArrayEquals(data, serializer.writeTree(serializer.readTree(data)));
+    }
+
+    private static class TransientObject {
+        private String name = "kept";
+        @Transient
+        private String cached = "skipped";
+    }
+
+    @Test
+    public void testBsonMatchesParsedJson() {
+        Gson gson = StorageAPIConstants.getGson();
+        BsonSerializer<TestObject> serializer = new BsonSerializer<>(TestObject.class, value -> value.getId().toString());
+        TestObject object = object();
+
+        BsonDocument document = new RawBsonDocument(serializer.serialize(object));
+        Document parsed = Document.parse(gson.toJson(object));
+        parsed.put("_id", object.getId().toString());
+        assertEquals(parsed.toBsonDocument(), document);
+        assertEquals("_id", document.getFirstKey());
+
+        assertEquals(object, serializer.decode(parsed.toBsonDocument()));
+        assertEquals(object, serializer.deserialize(serializer.serialize(object)));
+    }
+
+    @Test
+    public void testBsonSkipsTransientFields() {
+        BsonSerializer<TransientObject> serializer = new BsonSerializer<>(TransientObject.class, value -> null);
+
+        BsonDocument document = new RawBsonDocument(serializer.serialize(new TransientObject()));
+        assertEquals(new BsonDocument("name", new BsonString("kept")), document);
+    }
+
+    @Test
+    public void testBinarySqlStorage() {
+        File file = new File("./src/test/resources/serializer.db");
+        DirectSQLiteKVStorage<UUID, TestObject> storage = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "serializer", TestObject::new);
+        storage.serializer(Serializer.binary(TestObject.class));
+        TestObject object = object();
+
+        try {
+            storage.save(object).join();
+            storage.cache().invalidateAll();
+            assertEquals(object, storage.get(object.getId()).join());
+            assertEquals(1, storage.allValues().join().size());
+        } finally {
+            storage.deleteAll().join();
+            storage.close().join();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSerializerSwitchMigratesRows() {
+        File file = new File("./src/test/resources/switch.db");
+        DirectSQLiteKVStorage<UUID, TestObject> storage = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "switch", TestObject::new);
+        TestObject object = object();
+
+        try {
+            storage.save(object).join();
+            assertThrows(IllegalStateException.class, () -> storage.serializer(Serializer.binary(TestObject.class)));
+            assertTrue(storage.serializer().text());
+
+            storage.serializer(Serializer.binary(TestObject.class), true);
+            storage.cache().invalidateAll();
+            assertEquals(object, storage.get(object.getId()).join());
+            assertThrows(UnsupportedOperationException.class, () -> storage.renameField("name", "username"));
+
+            // reopening and setting the serializer the rows were written with again is fine
+            DirectSQLiteKVStorage<UUID, TestObject> reopened = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "switch", TestObject::new);
+            reopened.serializer(Serializer.binary(TestObject.class));
+            assertEquals(object, reopened.get(object.getId()).join());
+            reopened.close().join();
+
+            storage.serializer(Serializer.gson(TestObject.class), true);
+            storage.cache().invalidateAll();
+            assertEquals(object, storage.get(object.getId()).join());
+            assertEquals(1, storage.allValues().join().size());
+        } finally {
+            storage.deleteAll().join();
+            storage.close().join();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testJsonSerializerSwitchMigratesFiles() throws IOException {
+        File folder = Files.createTempDirectory("storageapi-switch").toFile();
+        DirectJsonKVStorage<UUID, TestObject> storage = new DirectJsonKVStorage<>(UUID.class, TestObject.class, folder, TestObject::new);
+        TestObject object = object();
+
+        try {
+            storage.save(object).join();
+            assertThrows(IllegalStateException.class, () -> storage.serializer(Serializer.binary(TestObject.class)));
+            assertTrue(new File(folder, object.getId() + ".json").exists());
+
+            storage.serializer(Serializer.binary(TestObject.class), true);
+            assertFalse(new File(folder, object.getId() + ".json").exists());
+            assertTrue(new File(folder, object.getId() + ".bin").exists());
+            storage.cache().invalidateAll();
+            assertEquals(object, storage.get(object.getId()).join());
+            assertEquals(1, storage.allValues().join().size());
+        } finally {
+            storage.deleteAll().join();
+            storage.close().join();
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void testBinaryJsonStorage() {
+        File folder = new File("./src/test/resources/serializer");
+        DirectJsonKVStorage<UUID, TestObject> storage = new DirectJsonKVStorage<>(UUID.class, TestObject.class, folder, TestObject::new);
+        storage.serializer(Serializer.binary(TestObject.class));
+        TestObject object = object();
+
+        try {
+            storage.save(object).join();
+            assertTrue(new File(folder, object.getId() + ".bin").exists());
+            storage.cache().invalidateAll();
+            assertEquals(object, storage.get(object.getId()).join());
+        } finally {
+            storage.deleteAll().join();
+            storage.close().join();
+            folder.delete();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package wtf.casper.storageapi;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.cache.Cache;
+import wtf.casper.storageapi.cache.CaffeineCache;
+import wtf.casper.storageapi.cache.NegativeCache;
+import wtf.casper.storageapi.cache.SingleFlightLoader;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightLoaderTests {
+
+    @Test
+    public void testConcurrentMissesShareLoad() {
+        Cache<String, String> cache = new CaffeineCache<>(Caffeine.newBuilder().build());
+        SingleFlightLoader<String, String> loader = new SingleFlightLoader<>(() -> cache);
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> backend = new CompletableFuture<>();
+
+        CompletableFuture<String> first = loader.get("a", key -> {
+            loads.incrementAndGet();
+            return backend;
+        });
+        CompletableFuture<String> second = loader.get("a", key -> {
+            loads.incrementAndGet();
+            return backend;
+        });
+
+        assertSame(first, second);
+        backend.complete("value");
+        assertEquals("value", second.join());
+        assertEquals(1, loads.get());
+        assertEquals("value", cache.getIfPresent("a"));
+        assertEquals(0, loader.size());
+    }
+
+    @Test
+    public void testInvalidateDuringLoadSkipsCache() {
+        Cache<String, String> cache = new CaffeineCache<>(Caffeine.newBuilder().build());
+        SingleFlightLoader<String, String> loader = new SingleFlightLoader<>(() -> cache);
+        CompletableFuture<String> backend = new CompletableFuture<>();
+
+        CompletableFuture<String> future = loader.get("a", key -> backend);
+        loader.invalidate("a");
+        backend.complete("stale");
+
+        assertEquals("stale", future.join());
+        assertNull(cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void testMissingKeysAreRemembered() {
+        Cache<String, String> cache = new CaffeineCache<>(Caffeine.newBuilder().build());
+        SingleFlightLoader<String, String> loader = new SingleFlightLoader<>(() -> cache);
+        loader.negativeCache(new NegativeCache<>(1, TimeUnit.MINUTES, 100));
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertNull(loader.get("missing", key -> {
+                loads.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }).join());
+        }
+        assertEquals(1, loads.get());
+        assertTrue(loader.isAbsent("missing"));
+
+        // saving a key invalidates it, which clears the missing marker
+        loader.invalidate("missing");
+        assertEquals("found", loader.get("missing", key -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("found");
+        }).join());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testSaveDuringLoad() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                Cache<String, String> cache = new CaffeineCache<>(Caffeine.newBuilder().build());
+                SingleFlightLoader<String, String> loader = new SingleFlightLoader<>(() -> cache);
+                loader.negativeCache(new NegativeCache<>(1, TimeUnit.MINUTES, 100));
+                CompletableFuture<String> backend = new CompletableFuture<>();
+                loader.get("a", key -> backend);
+
+                // the backend read didn't see the save, which has to win either way
+                CountDownLatch start = new CountDownLatch(1);
+                CompletableFuture<Void> load = CompletableFuture.runAsync(() -> {
+                    awaitQuietly(start);
+                    backend.complete(null);
+                }, executor);
+                CompletableFuture<Void> save = CompletableFuture.runAsync(() -> {
+                    awaitQuietly(start);
+                    cache.put("a", "saved");
+                    loader.invalidate("a");
+                }, executor);
+                start.countDown();
+                CompletableFuture.allOf(load, save).join();
+
+                assertFalse(loader.isAbsent("a"));
+                assertEquals("saved", loader.get("a", key -> CompletableFuture.completedFuture(null)).join());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaveDuringReload() {
+        Cache<String, String> cache = new CaffeineCache<>(Caffeine.newBuilder().build());
+        SingleFlightLoader<String, String> loader = new SingleFlightLoader<>(() -> cache);
+        CompletableFuture<String> backend = new CompletableFuture<>();
+        cache.put("a", "restored");
+        loader.revalidate(List.of("a"));
+
+        assertEquals("restored", loader.get("a", key -> backend).join());
+        // a save puts the value before it invalidates the loader
+        cache.put("a", "saved");
+        backend.complete("read before the save");
+        loader.invalidate("a");
+
+        assertEquals("saved", cache.getIfPresent("a"));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testBulkLoadSkipsInvalidatedKeys() {
+        Cache<String, String> cache = new CaffeineCache<>(Caffeine.newBuilder().build());
+        SingleFlightLoader<String, String> loader = new SingleFlightLoader<>(() -> cache);
+
+        try (SingleFlightLoader<String, String>.BulkLoad bulkLoad = loader.bulkLoad()) {
+            // saved while the bulk read ran
+            cache.put("saved", "new");
+            loader.invalidate("saved");
+            // removed while the bulk read ran
+            loader.invalidate("removed");
+            cache.invalidate("removed");
+
+            assertEquals("new", bulkLoad.publish("saved", "old"));
+            assertEquals("old", bulkLoad.publish("removed", "old"));
+            assertEquals("value", bulkLoad.publish("untouched", "value"));
+        }
+
+        assertEquals("new", cache.getIfPresent("saved"));
+        assertNull(cache.getIfPresent("removed"));
+        assertEquals("value", cache.getIfPresent("untouched"));
+    }
+}
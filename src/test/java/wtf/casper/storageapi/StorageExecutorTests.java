@@ -0,0 +1,68 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.direct.kvstorage.DirectSQLiteKVStorage;
+import wtf.casper.storageapi.utils.StorageExecutor;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StorageExecutorTests {
+
+    @Test
+    public void testMetrics() throws InterruptedException {
+        StorageExecutor executor = StorageExecutor.fixed("Test-Thread", 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, executor);
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> {}, executor);
+
+        started.await();
+        assertEquals(1, executor.getActiveThreads());
+        assertEquals(1, executor.getQueueDepth());
+
+        release.countDown();
+        CompletableFuture.allOf(first, second).join();
+        // the futures complete inside the tasks, just before they are counted as completed
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(2, executor.getCompletedTasks());
+    }
+
+    @Test
+    public void testCloseShutsDownOwnedExecutorOnly() throws InterruptedException {
+        File file = new File("src/test/resources/executor.db");
+        try {
+            DirectSQLiteKVStorage<UUID, TestObject> owning = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "owned", TestObject::new);
+            StorageExecutor owned = owning.executor();
+            owning.close().join();
+            assertTrue(owned.awaitTermination(5, TimeUnit.SECONDS));
+
+            StorageExecutor supplied = StorageExecutor.fixed("Test-Thread", 1);
+            DirectSQLiteKVStorage<UUID, TestObject> borrowing = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "supplied", TestObject::new);
+            StorageExecutor replaced = borrowing.executor();
+            borrowing.executor(supplied);
+            assertTrue(replaced.awaitTermination(5, TimeUnit.SECONDS));
+            borrowing.close().join();
+            CompletableFuture.runAsync(() -> {}, supplied).join();
+            supplied.shutdown();
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.cache.WriteBehindQueue;
+import wtf.casper.storageapi.impl.direct.kvstorage.DirectSQLiteKVStorage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindQueueTests {
+
+    @Test
+    public void testCoalescedFlush() {
+        List<Collection<String>> batches = new ArrayList<>();
+        WriteBehindQueue<String, String> queue = new WriteBehindQueue<>(1, TimeUnit.HOURS, 100, values -> {
+            batches.add(new ArrayList<>(values));
+            return CompletableFuture.completedFuture(null);
+        });
+
+        queue.add("a", "1");
+        queue.add("a", "2");
+        queue.add("b", "3");
+        assertEquals("2", queue.pending("a"));
+
+        queue.flush().join();
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(0, queue.size());
+        assertNull(queue.pending("a"));
+
+        queue.add("c", "4");
+        queue.discard("c");
+        queue.close().join();
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void testFailedFlushIsRetried() {
+        List<Collection<String>> batches = new ArrayList<>();
+        WriteBehindQueue<String, String> queue = new WriteBehindQueue<>(1, TimeUnit.HOURS, 100, values -> {
+            batches.add(new ArrayList<>(values));
+            if (batches.size() == 1) {
+                return CompletableFuture.failedFuture(new IllegalStateException("backend unavailable"));
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+
+        queue.add("a", "1");
+        assertThrows(CompletionException.class, () -> queue.flush().join());
+        assertEquals(1, queue.size());
+
+        queue.close().join();
+        assertEquals(2, batches.size());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testFailedStorageFlushStaysPending() {
+        File file = new File("./src/test/resources/write-behind.db");
+        DirectSQLiteKVStorage<UUID, TestObject> storage = new DirectSQLiteKVStorage<>(UUID.class, TestObject.class, file, "write_behind", TestObject::new);
+        storage.writeBehind(1, TimeUnit.HOURS, 100);
+        TestObject object = new TestObject(UUID.randomUUID(), "pending", 1, null);
+
+        try {
+            storage.execute("DROP TABLE write_behind;");
+            storage.save(object).join();
+            assertThrows(CompletionException.class, () -> storage.write().join());
+            assertThrows(CompletionException.class, () -> storage.writeBehind().close().join());
+            assertEquals(1, storage.writeBehind().size());
+            assertEquals(object, storage.writeBehind().pending(object.getId()));
+
+            storage.createTable();
+            storage.write().join();
+            assertEquals(0, storage.writeBehind().size());
+            storage.cache().invalidateAll();
+            assertEquals(object, storage.get(object.getId()).join());
+        } finally {
+            storage.close().join();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDiscardDuringFlush() {
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        List<String> written = new ArrayList<>();
+        WriteBehindQueue<String, String> queue = new WriteBehindQueue<>(1, TimeUnit.HOURS, 100,
+                values -> release.thenRun(() -> written.addAll(values)));
+
+        queue.add("a", "1");
+        queue.add("b", "2");
+        CompletableFuture<Void> flush = queue.flush();
+        CompletableFuture<Void> discarded = queue.discard("a");
+        assertFalse(discarded.isDone());
+
+        release.complete(null);
+        flush.join();
+        discarded.join();
+        assertEquals(List.of("2"), written);
+        assertEquals(0, queue.size());
+        assertTrue(queue.discard("b").isDone());
+    }
+}